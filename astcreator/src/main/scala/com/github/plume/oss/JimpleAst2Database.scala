@@ -1,8 +1,10 @@
 package com.github.plume.oss
 
 import better.files.File
-import com.github.plume.oss.drivers.IDriver
+import com.github.plume.oss.drivers.{BulkTxCheckpoint, IDriver, SpillableDiffBuffer}
+import com.github.plume.oss.drivers.IngestionMetrics.{EXTRACT_CLASSES, INTERNED_STRINGS, SOOT_LOAD}
 import com.github.plume.oss.passes.base.AstCreationPass
+import com.github.plume.oss.util.StringInterner
 import io.joern.jimple2cpg.Jimple2Cpg.language
 import io.joern.jimple2cpg.passes.SootAstCreationPass
 import io.joern.jimple2cpg.{Config, Jimple2Cpg}
@@ -18,28 +20,27 @@ import soot.options.Options
 import soot.{G, PhaseOptions, Scene}
 
 import java.io.File as JFile
+import java.nio.charset.StandardCharsets
 import java.nio.file.Paths
+import java.security.MessageDigest
 import scala.jdk.CollectionConverters.{EnumerationHasAsScala, SeqHasAsJava}
 import scala.language.postfixOps
 import scala.util.Try
 
 object JimpleAst2Database {
   val language: String = "PLUME"
-}
-
-class JimpleAst2Database(driver: IDriver, sootOnlyBuild: Boolean = false) {
-
-  import Jimple2Cpg.*
 
-  private val logger = LoggerFactory.getLogger(classOf[Jimple2Cpg])
+  /** The maximum number of classes loaded into Soot and written per pass in low-memory mode. Batches may exceed this to
+    * keep a top-level class together with its nested classes.
+    */
+  val LOW_MEMORY_BATCH_SIZE = 256
 
   /** Load all class files from archives or directories recursively
     * @return
     *   The list of extracted class files whose package path could be extracted, placed on that package path relative to
     *   [[tmpDir]]
     */
-  private def loadClassFiles(src: File, tmpDir: File): List[ClassFile] = {
-    val archiveFileExtensions = Set(".jar", ".war", ".zip")
+  def loadClassFiles(src: File, tmpDir: File): List[ClassFile] = {
     extractClassesInPackageLayout(
       src,
       tmpDir,
@@ -51,6 +52,51 @@ class JimpleAst2Database(driver: IDriver, sootOnlyBuild: Boolean = false) {
     )
   }
 
+  /** Groups class files by their top-level class, so that nested classes are never separated from it, and orders the
+    * groups by name so that classes of the same package, which most often refer to one another, are adjacent.
+    */
+  def topLevelClassGroups(classFiles: List[ClassFile]): List[List[ClassFile]] =
+    classFiles
+      .groupBy(c => c.fullyQualifiedClassName.map(_.takeWhile(_ != '$')).getOrElse(c.file.pathAsString))
+      .toList
+      .sortBy(_._1)
+      .map(_._2)
+}
+
+/** Creates the AST of a JVM program with Soot and writes it to the given driver.
+  * @param deferIndexes
+  *   if true, the driver's secondary indexes are dropped or postponed while the AST is written and built once
+  *   afterwards. See [[IDriver.beginBulkLoad]].
+  * @param lowMemory
+  *   if true, classes are loaded into Soot and written in batches of related classes rather than all at once, and the
+  *   method bodies of each class are released as soon as its AST is created. This bounds both the retained Soot state
+  *   and the size of each diff, at the cost of more, smaller transactions.
+  * @param internStrings
+  *   if true, equal string property values of the created nodes share a single instance within each pass, see
+  *   [[StringInterner]].
+  * @param checkpoint
+  *   if given, the progress of each pass is recorded in the checkpoint, and the passes it records as committed are
+  *   skipped, see [[IDriver.checkpointedBulkTx]]. The checkpoint must have been written for the same input and mode. In
+  *   low-memory mode, committed batches are neither loaded into Soot nor have their AST created.
+  * @param spillHeapPercentage
+  *   if given, the changes of each pass are spilled to disk once this percentage of the heap is in use, so that the
+  *   size of a diff is bounded by the disk rather than the heap, see [[SpillableDiffBuffer]].
+  */
+class JimpleAst2Database(
+  driver: IDriver,
+  sootOnlyBuild: Boolean = false,
+  deferIndexes: Boolean = false,
+  lowMemory: Boolean = false,
+  internStrings: Boolean = false,
+  checkpoint: Option[BulkTxCheckpoint] = None,
+  spillHeapPercentage: Option[Int] = None
+) {
+
+  import Jimple2Cpg.*
+  import JimpleAst2Database.{LOW_MEMORY_BATCH_SIZE, loadClassFiles, topLevelClassGroups}
+
+  private val logger = LoggerFactory.getLogger(classOf[Jimple2Cpg])
+
   /** Extract all class files found, place them in their package layout and load them into soot.
     */
   private def sootLoad(classFiles: List[ClassFile]): List[ClassFile] = {
@@ -72,26 +118,109 @@ class JimpleAst2Database(driver: IDriver, sootOnlyBuild: Boolean = false) {
     val input = File(config.inputPath)
     configureSoot(config, tmpDir)
 
-    val codeToProcess = loadClassFiles(input, tmpDir)
+    val codeToProcess = driver.metrics.time(EXTRACT_CLASSES)(loadClassFiles(input, tmpDir))
     logger.info("Loading classes to soot")
 
     // Load classes into Soot
-    sootLoad(codeToProcess)
-    Scene.v().loadNecessaryClasses()
+    driver.metrics.time(SOOT_LOAD) {
+      // In low-memory mode, program classes are only loaded as their batch is processed
+      if (!lowMemory) sootLoad(codeToProcess)
+      Scene.v().loadNecessaryClasses()
+    }
     logger.info(s"Loaded ${Scene.v().getApplicationClasses.size()} classes")
 
     if (!sootOnlyBuild) {
+      checkpoint.foreach { cp =>
+        cp.validate(fingerprint(codeToProcess, tmpDir))
+        driver.resumeFrom(cp)
+      }
       // Project Soot classes
-      val astCreator = new AstCreationPass(codeToProcess.map(_.file.pathAsString), driver, tmpDir)
-      astCreator.createAndApply()
+      if (lowMemory) {
+        val batches = lowMemoryBatches(codeToProcess)
+        logger.info(s"Creating the AST of ${codeToProcess.size} classes in ${batches.size} batches")
+        batches.zipWithIndex.foreach { case (batch, seq) =>
+          if (isCommitted(seq)) logger.info(s"Skipping batch $seq, which was committed before")
+          else
+            createAndApply(interner =>
+              new AstCreationPass(
+                batch.map(_.file.pathAsString),
+                driver,
+                tmpDir,
+                lowMemory = true,
+                interner,
+                seq,
+                spillHeapPercentage
+              )
+            )
+        }
+      } else if (isCommitted(0)) {
+        logger.info("Skipping the AST creation, which was committed before")
+      } else {
+        createAndApply(interner =>
+          new AstCreationPass(
+            codeToProcess.map(_.file.pathAsString),
+            driver,
+            tmpDir,
+            interner = interner,
+            spillHeapPercentage = spillHeapPercentage
+          )
+        )
+      }
+    }
+  }
+
+  /** Creates and applies an AST creation pass with its own [[StringInterner]], if enabled. The interner is released
+    * along with the pass, so that it never holds more than the strings of a single pass.
+    */
+  private def createAndApply(newPass: Option[StringInterner] => AstCreationPass): Unit = {
+    val interner = Option.when(internStrings)(new StringInterner())
+    newPass(interner).createAndApply()
+    interner.foreach { i =>
+      driver.metrics.increment(INTERNED_STRINGS, i.duplicateCount)
+      logger.info(s"Interned ${i.duplicateCount} duplicate strings, saving ~${i.savedBytesEstimate / 1024} KiB")
+    }
+  }
+
+  private def isCommitted(seq: Int): Boolean = checkpoint.exists(_.isCommitted(seq))
+
+  /** @return
+    *   a hash of the class files to process, their contents, and the mode they are processed in, which identifies the
+    *   ingestion a checkpoint belongs to.
+    */
+  private def fingerprint(classFiles: List[ClassFile], tmpDir: File): String = {
+    val digest = MessageDigest.getInstance("SHA-256")
+    digest.update(s"lowMemory=$lowMemory".getBytes(StandardCharsets.UTF_8))
+    classFiles.sortBy(_.file.pathAsString).foreach { c =>
+      digest.update(tmpDir.relativize(c.file).toString.getBytes(StandardCharsets.UTF_8))
+      digest.update(c.file.byteArray)
+    }
+    digest.digest().map("%02x".format(_)).mkString
+  }
+
+  /** Groups class files into batches of at most [[LOW_MEMORY_BATCH_SIZE]] classes where possible, see
+    * [[JimpleAst2Database.topLevelClassGroups]].
+    */
+  private def lowMemoryBatches(classFiles: List[ClassFile]): List[List[ClassFile]] = {
+    val batches = List.newBuilder[List[ClassFile]]
+    var current = List.empty[ClassFile]
+    topLevelClassGroups(classFiles).foreach { group =>
+      if (current.nonEmpty && current.size + group.size > LOW_MEMORY_BATCH_SIZE) {
+        batches += current
+        current = List.empty
+      }
+      current = current ++ group
     }
+    if (current.nonEmpty) batches += current
+    batches.result()
   }
 
   def createAst(config: Config): Unit = {
+    if (deferIndexes) driver.beginBulkLoad()
     try {
       File.temporaryDirectory("jimple2cpg-").apply(cpgApplyPasses(config, _))
     } finally {
       G.reset()
+      if (deferIndexes) driver.endBulkLoad()
     }
   }
 
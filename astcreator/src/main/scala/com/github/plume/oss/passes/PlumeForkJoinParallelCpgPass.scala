@@ -1,18 +1,21 @@
 package com.github.plume.oss.passes
 
-import com.github.plume.oss.drivers.IDriver
+import com.github.plume.oss.drivers.{IDriver, SpillableDiffBuffer}
+import com.github.plume.oss.drivers.IngestionMetrics.*
 import io.shiftleft.SerializedCpg
 import io.shiftleft.codepropertygraph.generated.Cpg
 import io.shiftleft.utils.ExecutionContextProvider
 import io.shiftleft.codepropertygraph.generated.nodes.AbstractNode
 import io.shiftleft.passes.CpgPassBase
 import overflowdb.BatchedUpdate.DiffGraphBuilder
+import overflowdb.DetachedNodeData
 
 import java.util.function.*
 import scala.annotation.nowarn
 import scala.collection.mutable
 import scala.concurrent.duration.Duration
 import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.jdk.CollectionConverters.IteratorHasAsScala
 
 abstract class PlumeForkJoinParallelCpgPass[T <: AnyRef](driver: IDriver, @nowarn outName: String = "")
     extends CpgPassBase {
@@ -32,44 +35,68 @@ abstract class PlumeForkJoinParallelCpgPass[T <: AnyRef](driver: IDriver, @nowar
   // Override this to disable parallelism of passes. Useful for debugging.
   def isParallel: Boolean = true
 
+  // The sequence number of this pass's bulk transaction within an ingestion, see IDriver.checkpointedBulkTx
+  def txSeq: Int = 0
+
+  // If given, the changes of completed parts are spilled to disk once this percentage of the heap is in use, see
+  // SpillableDiffBuffer. Ignored by drivers whose database assigns node IDs, and while checkpointing
+  def spillHeapPercentage: Option[Int] = None
+
+  private var spillBuffer: Option[SpillableDiffBuffer] = None
+
   override def createAndApply(): Unit = createApplySerializeAndStore(null)
 
+  // init() is not part of AST_BUILD, as it may itself be timed, e.g., as SOOT_LOAD by AstCreationPass
   override def runWithBuilder(externalBuilder: DiffGraphBuilder): Int = {
     try {
       init()
-      val parts  = generateParts()
-      val nParts = parts.size
-      nParts match {
-        case 0 =>
-        case 1 =>
-          runOnPart(externalBuilder, parts(0).asInstanceOf[T])
-        case _ =>
-          val stream =
-            if (!isParallel)
-              java.util.Arrays
-                .stream(parts)
-                .sequential()
-            else
-              java.util.Arrays
-                .stream(parts)
-                .parallel()
-          val diff = stream.collect(
-            new Supplier[DiffGraphBuilder] {
-              override def get(): DiffGraphBuilder =
-                Cpg.newDiffGraphBuilder
-            },
-            new BiConsumer[DiffGraphBuilder, AnyRef] {
-              override def accept(builder: DiffGraphBuilder, part: AnyRef): Unit =
-                runOnPart(builder, part.asInstanceOf[T])
-            },
-            new BiConsumer[DiffGraphBuilder, DiffGraphBuilder] {
-              override def accept(leftBuilder: DiffGraphBuilder, rightBuilder: DiffGraphBuilder): Unit =
-                leftBuilder.absorb(rightBuilder)
+      driver.metrics.time(AST_BUILD) {
+        val parts  = generateParts()
+        val nParts = parts.size
+        nParts match {
+          case 0 =>
+          case 1 =>
+            runOnPart(externalBuilder, parts(0).asInstanceOf[T])
+          case _ =>
+            val stream =
+              if (!isParallel)
+                java.util.Arrays
+                  .stream(parts)
+                  .sequential()
+              else
+                java.util.Arrays
+                  .stream(parts)
+                  .parallel()
+            spillBuffer match {
+              case Some(buffer) =>
+                stream.forEach(new Consumer[AnyRef] {
+                  override def accept(part: AnyRef): Unit = {
+                    val builder = Cpg.newDiffGraphBuilder
+                    runOnPart(builder, part.asInstanceOf[T])
+                    driver.metrics.time(DIFF_MERGE)(buffer.add(builder))
+                  }
+                })
+                driver.metrics.time(DIFF_MERGE)(buffer.drainTo(externalBuilder))
+              case None =>
+                val diff = stream.collect(
+                  new Supplier[DiffGraphBuilder] {
+                    override def get(): DiffGraphBuilder =
+                      Cpg.newDiffGraphBuilder
+                  },
+                  new BiConsumer[DiffGraphBuilder, AnyRef] {
+                    override def accept(builder: DiffGraphBuilder, part: AnyRef): Unit =
+                      runOnPart(builder, part.asInstanceOf[T])
+                  },
+                  new BiConsumer[DiffGraphBuilder, DiffGraphBuilder] {
+                    override def accept(leftBuilder: DiffGraphBuilder, rightBuilder: DiffGraphBuilder): Unit =
+                      driver.metrics.time(DIFF_MERGE)(leftBuilder.absorb(rightBuilder))
+                  }
+                )
+                driver.metrics.time(DIFF_MERGE)(externalBuilder.absorb(diff))
             }
-          )
-          externalBuilder.absorb(diff)
+        }
+        nParts
       }
-      nParts
     } finally {
       finish()
     }
@@ -83,11 +110,24 @@ abstract class PlumeForkJoinParallelCpgPass[T <: AnyRef](driver: IDriver, @nowar
     var nDiff      = -1
     var nDiffT     = -1
     try {
+      spillBuffer = spillHeapPercentage
+        .filter(_ => driver.assignsNodeIds && !driver.isCheckpointing)
+        .map(threshold => new SpillableDiffBuffer(driver, threshold))
       val diffGraph = Cpg.newDiffGraphBuilder
       nParts = runWithBuilder(diffGraph)
       nanosBuilt = System.nanoTime()
-      nDiff = diffGraph.size
-      driver.bulkTx(diffGraph)
+      val nSpilled      = spillBuffer.map(_.spilledChanges).getOrElse(0L)
+      val nSpilledNodes = spillBuffer.map(_.spilledNodes).getOrElse(0L)
+      nDiff = diffGraph.size + nSpilled.toInt
+      val nNodes = diffGraph.iterator().asScala.count(_.isInstanceOf[DetachedNodeData])
+      driver.metrics.time(BULK_TX) {
+        // Spilled nodes may be the endpoints of edges held on the heap, and vice versa
+        spillBuffer.foreach(_.replayNodes())
+        driver.checkpointedBulkTx(txSeq, diffGraph)
+        spillBuffer.foreach(_.replayEdges())
+      }
+      driver.metrics.increment(CHANGES, nDiff)
+      driver.metrics.increment(NODES, nNodes + nSpilledNodes)
     } catch {
       case exc: Exception =>
         baseLogger.error(s"Pass ${name} failed", exc)
@@ -96,6 +136,8 @@ abstract class PlumeForkJoinParallelCpgPass[T <: AnyRef](driver: IDriver, @nowar
       try {
         finish()
       } finally {
+        spillBuffer.foreach(_.close())
+        spillBuffer = None
         // the nested finally is somewhat ugly -- but we promised to clean up with finish(), we want to include finish()
         // in the reported timings, and we must have our final log message if finish() throws
         val nanosStop = System.nanoTime()
@@ -3,25 +3,63 @@ package com.github.plume.oss.passes.base
 import better.files.File
 import com.github.plume.oss.JimpleAst2Database
 import com.github.plume.oss.drivers.IDriver
+import com.github.plume.oss.drivers.IngestionMetrics.SOOT_LOAD
 import com.github.plume.oss.passes.PlumeForkJoinParallelCpgPass
+import com.github.plume.oss.util.StringInterner
 import io.joern.x2cpg.ValidationMode
 import io.joern.x2cpg.datastructures.Global
+import io.shiftleft.codepropertygraph.generated.nodes.NewNode
 import org.slf4j.LoggerFactory
 import overflowdb.BatchedUpdate.DiffGraphBuilder
-import soot.Scene
+import soot.{Scene, SootClass}
+
 import java.io.File as JFile
 import java.nio.file.Paths
+import scala.jdk.CollectionConverters.{IteratorHasAsScala, ListHasAsScala}
+import scala.util.{Failure, Success, Try}
 
 /** Creates the AST layer from the given class file and stores all types in the given global parameter.
+  *
+  * @param lowMemory
+  *   if true, the classes are loaded into Soot by this pass, and the method bodies of each class are released once its
+  *   AST has been created.
+  * @param interner
+  *   if given, the repeated string properties of the created nodes are replaced by canonical instances.
+  * @param txSeq
+  *   the sequence number of the pass's bulk transaction, see [[IDriver.checkpointedBulkTx]].
+  * @param spillHeapPercentage
+  *   if given, the ASTs of completed classes are spilled to disk once this percentage of the heap is in use, see
+  *   [[com.github.plume.oss.drivers.SpillableDiffBuffer]].
   */
-class AstCreationPass(filenames: List[String], driver: IDriver, unpackingRoot: File)
-    extends PlumeForkJoinParallelCpgPass[String](driver) {
+class AstCreationPass(
+  filenames: List[String],
+  driver: IDriver,
+  unpackingRoot: File,
+  lowMemory: Boolean = false,
+  interner: Option[StringInterner] = None,
+  override val txSeq: Int = 0,
+  override val spillHeapPercentage: Option[Int] = None
+) extends PlumeForkJoinParallelCpgPass[String](driver) {
 
   val global: Global = new Global()
   private val logger = LoggerFactory.getLogger(classOf[AstCreationPass])
 
   override def generateParts(): Array[String] = filenames.toArray
 
+  /** In low-memory mode, the classes of this pass are not yet in the Soot scene. Soot's class loading is not thread
+    * safe, so they are loaded here before the parts are processed in parallel.
+    */
+  override def init(): Unit = if (lowMemory) {
+    driver.metrics.time(SOOT_LOAD) {
+      filenames.map(getQualifiedClassPath).filter(_.contains(".class")).foreach { qualifiedClassName =>
+        Try(Scene.v().loadClassAndSupport(qualifiedClassName.stripSuffix(".class"))) match {
+          case Success(_) =>
+          case Failure(e) => logger.warn(s"Cannot load: $qualifiedClassName", e)
+        }
+      }
+    }
+  }
+
   /** Formats the file name the way Soot refers to classes within a class path. e.g.
     * /unrelated/paths/class/path/Foo.class => class.path.Foo
     */
@@ -42,7 +80,14 @@ class AstCreationPass(filenames: List[String], driver: IDriver, unpackingRoot: F
       sootClass.setApplicationClass()
       val localDiff =
         new io.joern.jimple2cpg.astcreation.AstCreator(part, sootClass, global)(ValidationMode.Disabled).createAst()
+      interner.foreach { i =>
+        localDiff.iterator().asScala.foreach {
+          case node: NewNode => i.internProperties(node)
+          case _             =>
+        }
+      }
       builder.absorb(localDiff)
+      if (lowMemory) releaseBodies(sootClass)
     } catch {
       case e: Exception =>
         logger.warn(s"Cannot parse: $part ($qualifiedClassName)", e)
@@ -50,4 +95,9 @@ class AstCreationPass(filenames: List[String], driver: IDriver, unpackingRoot: F
     }
   }
 
+  /** Releases the Jimple bodies of the given class' methods, which are no longer needed once its AST is created.
+    */
+  private def releaseBodies(sootClass: SootClass): Unit =
+    sootClass.getMethods.asScala.filter(_.hasActiveBody).foreach(_.releaseActiveBody())
+
 }
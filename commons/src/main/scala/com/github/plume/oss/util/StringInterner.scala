@@ -0,0 +1,105 @@
+package com.github.plume.oss.util
+
+import io.shiftleft.codepropertygraph.generated.nodes.*
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+/** A concurrent string dictionary that maps equal strings to a single canonical instance, so that property values
+  * repeated across many nodes, e.g., names, type full names, and method signatures, are held in memory once. Unlike
+  * `String.intern`, the dictionary is owned by the caller and released along with it.
+  *
+  * `CODE` properties are not interned. They are mostly unique, so the dictionary would retain them for its lifetime
+  * while saving little.
+  */
+final class StringInterner {
+
+  import StringInterner.*
+
+  private val dictionary = new ConcurrentHashMap[String, String]()
+  private val duplicates = new LongAdder()
+  private val savedBytes = new LongAdder()
+
+  /** @return
+    *   the canonical instance of the given string.
+    */
+  def intern(s: String): String =
+    if (s == null) s
+    else {
+      val existing = dictionary.get(s)
+      val canonical =
+        if (existing != null) existing
+        else {
+          val raced = dictionary.putIfAbsent(s, s)
+          if (raced != null) raced else s
+        }
+      if (canonical ne s) {
+        duplicates.increment()
+        savedBytes.add(STRING_OVERHEAD_BYTES + s.length)
+      }
+      canonical
+    }
+
+  /** Replaces the repeated string properties of the given node with their canonical instances.
+    */
+  def internProperties(node: NewNode): Unit = node match {
+    case n: NewMethod =>
+      n.name = intern(n.name); n.fullName = intern(n.fullName); n.signature = intern(n.signature)
+      n.filename = intern(n.filename); n.astParentType = intern(n.astParentType)
+      n.astParentFullName = intern(n.astParentFullName)
+    case n: NewTypeDecl =>
+      n.name = intern(n.name); n.fullName = intern(n.fullName); n.filename = intern(n.filename)
+      n.astParentType = intern(n.astParentType); n.astParentFullName = intern(n.astParentFullName)
+    case n: NewCall =>
+      n.name = intern(n.name); n.methodFullName = intern(n.methodFullName); n.signature = intern(n.signature)
+      n.typeFullName = intern(n.typeFullName)
+    case n: NewMethodRef =>
+      n.methodFullName = intern(n.methodFullName); n.typeFullName = intern(n.typeFullName)
+    case n: NewMember =>
+      n.name = intern(n.name); n.typeFullName = intern(n.typeFullName)
+    case n: NewMethodParameterIn =>
+      n.name = intern(n.name); n.typeFullName = intern(n.typeFullName)
+    case n: NewLocal =>
+      n.name = intern(n.name); n.typeFullName = intern(n.typeFullName)
+    case n: NewIdentifier =>
+      n.name = intern(n.name); n.typeFullName = intern(n.typeFullName)
+    case n: NewFieldIdentifier =>
+      n.canonicalName = intern(n.canonicalName)
+    case n: NewMethodReturn => n.typeFullName = intern(n.typeFullName)
+    case n: NewLiteral      => n.typeFullName = intern(n.typeFullName)
+    case n: NewTypeRef      => n.typeFullName = intern(n.typeFullName)
+    case n: NewBlock        => n.typeFullName = intern(n.typeFullName)
+    case n: NewUnknown      => n.typeFullName = intern(n.typeFullName)
+    case _                  =>
+  }
+
+  /** @return
+    *   the number of distinct strings in the dictionary.
+    */
+  def size: Int = dictionary.size()
+
+  /** @return
+    *   the number of strings that were replaced by an existing canonical instance.
+    */
+  def duplicateCount: Long = duplicates.sum()
+
+  /** @return
+    *   an estimate of the heap freed by replacing duplicates, assuming compact (Latin-1) strings.
+    */
+  def savedBytesEstimate: Long = savedBytes.sum()
+
+  def clear(): Unit = {
+    dictionary.clear()
+    duplicates.reset()
+    savedBytes.reset()
+  }
+
+}
+
+object StringInterner {
+
+  /** The approximate size of a `String` and its backing array, excluding the characters themselves.
+    */
+  private val STRING_OVERHEAD_BYTES = 40
+
+}
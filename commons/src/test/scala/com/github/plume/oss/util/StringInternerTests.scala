@@ -0,0 +1,72 @@
+package com.github.plume.oss.util
+
+import io.shiftleft.codepropertygraph.generated.nodes.NewCall
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import java.util.concurrent.CountDownLatch
+
+class StringInternerTests extends AnyWordSpec with Matchers {
+
+  // An equal string that is guaranteed to be a distinct instance
+  private def copyOf(s: String): String = new String(s.toCharArray)
+
+  "a string interner" should {
+
+    "return the canonical instance to racing callers" in {
+      val interner = new StringInterner()
+      val threads  = 8
+      val start    = new CountDownLatch(1)
+      val results  = new Array[String](threads)
+      val workers = (0 until threads).map { t =>
+        val worker = new Thread(() => {
+          val s = copyOf("java.lang.String")
+          start.await()
+          results(t) = interner.intern(s)
+        })
+        worker.start()
+        worker
+      }
+      start.countDown()
+      workers.foreach(_.join())
+      results.foreach(_ shouldBe theSameInstanceAs(results.head))
+      interner.size shouldBe 1
+      interner.duplicateCount shouldBe threads - 1
+    }
+
+    "rewrite the repeated properties of a node and leave its code alone" in {
+      val interner = new StringInterner()
+      val calls = (1 to 2).map { _ =>
+        NewCall()
+          .name(copyOf("toString"))
+          .methodFullName(copyOf("java.lang.Object.toString:java.lang.String()"))
+          .code(copyOf("x.toString()"))
+      }
+      calls.foreach(interner.internProperties)
+      calls(1).name shouldBe theSameInstanceAs(calls(0).name)
+      calls(1).methodFullName shouldBe theSameInstanceAs(calls(0).methodFullName)
+      calls(1).code shouldBe calls(0).code
+      calls(1).code should not be theSameInstanceAs(calls(0).code)
+    }
+
+    "count duplicates and estimate the bytes they free" in {
+      val interner = new StringInterner()
+      interner.intern(copyOf("Foo")) shouldBe "Foo"
+      interner.duplicateCount shouldBe 0
+      interner.savedBytesEstimate shouldBe 0
+      interner.intern(copyOf("Foo"))
+      interner.intern(copyOf("Foo"))
+      interner.intern(copyOf("Bar.baz"))
+      interner.size shouldBe 2
+      interner.duplicateCount shouldBe 2
+      interner.savedBytesEstimate shouldBe 2 * (40 + "Foo".length)
+      interner.intern(null) shouldBe null
+      interner.duplicateCount shouldBe 2
+      interner.clear()
+      interner.size shouldBe 0
+      interner.duplicateCount shouldBe 0
+      interner.savedBytesEstimate shouldBe 0
+    }
+  }
+
+}
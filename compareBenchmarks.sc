@@ -0,0 +1,208 @@
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+import scala.jdk.CollectionConverters.*
+import scala.sys.process.*
+import scala.util.Try
+
+// The results store: one tab-separated row per (driver, project, Xmx, benchmark, params) measurement
+val resultsDir   = Path.of("results")
+val currentFile  = Path.of(resultsDir.toString, "current.tsv")
+val baselineFile = Path.of(resultsDir.toString, "baseline.tsv")
+val oomFile      = Path.of(resultsDir.toString, "oom-combinations.txt")
+
+// JMH result files are named results-Xmx<N>G-<type>.csv within results/<driver>/<project>/, next to the
+// output-Xmx<N>G.done marker that holds the commit which produced them
+val ResultFileName = """results-Xmx(\d+)G-(.+)\.csv""".r
+
+/** Maintains baselines of the JMH results produced by `runBenchmarks.sc`, and flags regressions against them.
+  *
+  * Commands:
+  *   - `ingest` collects all JMH result CSVs under `results/` into `results/current.tsv`, each tagged with the commit
+  *     that produced it. Results of cells that have not completed are tagged as `unknown`.
+  *   - `baseline` promotes the ingested results to `results/baseline.tsv`.
+  *   - `compare [--threshold 0.05]` reports every measurement that is significantly worse than its baseline, i.e., its
+  *     99.9% confidence interval does not overlap with the baseline's and it is worse by more than the threshold, as
+  *     well as cells that ran out of memory at the checked out commit. Exits with a non-zero status on regressions.
+  */
+@main def main(args: String*): Unit = args.headOption match {
+  case Some("ingest") =>
+    val measurements = ingest()
+    writeStore(currentFile, measurements)
+    println(s"[info] Ingested ${measurements.size} measurements into $currentFile")
+  case Some("baseline") =>
+    Files.copy(currentFile, baselineFile, java.nio.file.StandardCopyOption.REPLACE_EXISTING)
+    println(s"[info] Promoted $currentFile to the baseline")
+  case Some("compare") =>
+    val threshold   = args.sliding(2).collectFirst { case Seq("--threshold", t) => t.toDouble }.getOrElse(0.05)
+    val regressions = compare(readStore(baselineFile), readStore(currentFile), threshold)
+    if (regressions.isEmpty) println("[info] No regressions found")
+    else {
+      println(s"[error] ${regressions.size} regression(s) found:")
+      regressions.foreach(r => println(s" - $r"))
+      sys.exit(1)
+    }
+  case _ =>
+    println("Usage: scala compareBenchmarks.sc -- (ingest | baseline | compare [--threshold <fraction>])")
+    sys.exit(2)
+}
+
+/** A single JMH score with its 99.9% confidence half-width. The `params` hold the benchmark's `@Param` values as
+  * comma-separated `name=value` pairs, and are empty for benchmarks without parameters.
+  */
+case class Measurement(
+  driver: String,
+  project: String,
+  memGb: Int,
+  benchmark: String,
+  params: String,
+  mode: String,
+  threads: Int,
+  unit: String,
+  score: Double,
+  error: Double,
+  commit: String
+) {
+
+  def key: (String, String, Int, String, String, String, Int) =
+    (driver, project, memGb, benchmark, params, mode, threads)
+
+  def lower: Double = if (error.isNaN) score else score - error
+
+  def upper: Double = if (error.isNaN) score else score + error
+
+  /** @return
+    *   true if larger scores are better, as for throughput, and false for times and memory.
+    */
+  def higherIsBetter: Boolean = unit.startsWith("ops/")
+
+  def toRow: String =
+    Seq(driver, project, memGb, benchmark, params, mode, threads, unit, score, error, commit).mkString("\t")
+
+  override def toString: String = {
+    val withParams = if (params.isEmpty) benchmark else s"$benchmark[$params]"
+    s"$driver/$project/-Xmx${memGb}G $withParams ($mode, $threads threads)"
+  }
+
+}
+
+def ingest(): Seq[Measurement] = {
+  def subDirs(p: Path): Seq[Path] =
+    if (Files.isDirectory(p)) Files.list(p).toList.asScala.filter(Files.isDirectory(_)).toSeq else Seq.empty
+  for {
+    driverDir  <- subDirs(resultsDir)
+    projectDir <- subDirs(driverDir)
+    file       <- Files.list(projectDir).toList.asScala.toSeq
+    // Skip the memory time series written by the sampling profiler, whose peaks are already part of the JMH results
+    memGb <- file.getFileName.toString match {
+      case ResultFileName(mem, benchmarkType) if !benchmarkType.endsWith("memory") => Some(mem.toInt)
+      case _                                                                        => None
+    }
+    doneMarker = Path.of(projectDir.toString, s"output-Xmx${memGb}G.done")
+    commit     = Try(Files.readString(doneMarker).trim).filter(_.nonEmpty).getOrElse("unknown")
+    m <- parseJmhCsv(file).map { case (benchmark, params, mode, threads, unit, score, error) =>
+      Measurement(
+        driverDir.getFileName.toString,
+        projectDir.getFileName.toString,
+        memGb,
+        benchmark,
+        params,
+        mode,
+        threads,
+        unit,
+        score,
+        error,
+        commit
+      )
+    }
+  } yield m
+}
+
+/** Parses the rows of a JMH CSV result file. Secondary results, such as those of profilers, appear as their own rows
+  * with the benchmark name suffixed by the result label. The values of the `Param: <name>` columns are joined into
+  * `name=value` pairs, skipping the serialized Plume configuration that is the same for every row of a cell.
+  */
+def parseJmhCsv(file: Path): Seq[(String, String, String, Int, String, Double, Double)] = {
+  def cells(line: String): Seq[String] =
+    line.split(""",(?=(?:[^"]*"[^"]*")*[^"]*$)""").map(_.trim.stripPrefix("\"").stripSuffix("\"")).toSeq
+  Files.readAllLines(file, StandardCharsets.UTF_8).asScala.toList match {
+    case header :: rows =>
+      val cols = cells(header).zipWithIndex.toMap
+      val paramCols = cols.toSeq.sortBy(_._2).collect {
+        case (col, i) if col.startsWith("Param: ") && col != "Param: configStr" => col.stripPrefix("Param: ") -> i
+      }
+      rows.filter(_.nonEmpty).map(cells).flatMap { row =>
+        Try(
+          (
+            row(cols("Benchmark")),
+            paramCols.map { case (name, i) => s"$name=${row.lift(i).getOrElse("")}" }.mkString(","),
+            row(cols("Mode")),
+            row(cols("Threads")).toInt,
+            row(cols("Unit")),
+            row(cols("Score")).toDouble,
+            Try(row(cols("Score Error (99.9%)")).toDouble).getOrElse(Double.NaN)
+          )
+        ).toOption
+      }
+    case Nil => Seq.empty
+  }
+}
+
+def writeStore(path: Path, measurements: Seq[Measurement]): Unit =
+  Files.write(path, measurements.map(_.toRow).asJava, StandardCharsets.UTF_8)
+
+def readStore(path: Path): Seq[Measurement] =
+  if (!Files.exists(path)) {
+    println(s"[error] $path does not exist, run the ingest command first")
+    sys.exit(2)
+  } else {
+    Files.readAllLines(path, StandardCharsets.UTF_8).asScala.toSeq.map(_.split("\t")).collect {
+      case Array(driver, project, memGb, benchmark, params, mode, threads, unit, score, error, commit) =>
+        Measurement(
+          driver,
+          project,
+          memGb.toInt,
+          benchmark,
+          params,
+          mode,
+          threads.toInt,
+          unit,
+          score.toDouble,
+          error.toDouble,
+          commit
+        )
+    }
+  }
+
+def compare(baseline: Seq[Measurement], current: Seq[Measurement], threshold: Double): Seq[String] = {
+  val currentByKey = current.map(m => m.key -> m).toMap
+  // Out of memory entries are recorded with the commit they were observed at, see `runBenchmarks.sc`
+  val commit = Try("git rev-parse --short HEAD".!!.trim).getOrElse("unknown")
+  val ooms: Set[(String, String, Int)] =
+    if (Files.exists(oomFile)) {
+      Files.readAllLines(oomFile).asScala.map(_.split(",")).collect {
+        case Array(d, p, m, c) if c == commit => (d, p, m.toInt)
+      }.toSet
+    } else Set.empty
+  val newOoms = baseline
+    .map(b => (b.driver, b.project, b.memGb))
+    .distinct
+    .filter(ooms.contains)
+    .map { case (d, p, m) => s"$d/$p/-Xmx${m}G now runs out of memory" }
+  val slower = baseline.flatMap { b =>
+    currentByKey.get(b.key).flatMap { c =>
+      val change = (c.score - b.score) / math.abs(b.score)
+      val worse  = if (b.higherIsBetter) -change else change
+      // Without an error estimate, e.g., for single-iteration results, only the threshold applies
+      val hasCIs      = !b.error.isNaN && !c.error.isNaN
+      val disjointCIs = if (b.higherIsBetter) c.upper < b.lower else c.lower > b.upper
+      if (worse > threshold && (disjointCIs || !hasCIs)) {
+        val significance = if (hasCIs) "99.9% CI" else "threshold only"
+        Some(
+          f"$c: ${b.score}%.3f -> ${c.score}%.3f ${c.unit} (${worse * 100}%+.1f%%, ${b.commit} -> ${c.commit}, " +
+            s"$significance)"
+        )
+      } else None
+    }
+  }
+  newOoms ++ slower
+}
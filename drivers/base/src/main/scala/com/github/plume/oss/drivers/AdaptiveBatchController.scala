@@ -0,0 +1,155 @@
+package com.github.plume.oss.drivers
+
+import org.slf4j.LoggerFactory
+
+import java.io.InterruptedIOException
+import java.util.concurrent.TimeoutException
+import scala.collection.mutable
+import scala.collection.mutable.ArrayBuffer
+import scala.util.{Failure, Success, Try}
+
+/** Splits a stream of changes into transactions whose size adapts to the throughput of the database, in the manner of
+  * additive-increase/multiplicative-decrease congestion control.
+  *
+  * After each full batch, the controller compares the batch's throughput with a moving average of previous ones. While
+  * throughput holds up, the batch size grows by a fixed step. When throughput drops, the batch size is cut by a
+  * quarter, and when operations of a batch fail, e.g., due to timeouts, it is halved. A batch that failed as a whole
+  * with a transient exception, such as a timeout, is retried in batches of the reduced size, up to [[MAX_RETRIES]]
+  * times in a row. The batch size always stays within `[minSize, maxSize]`, so a controller with `minSize == maxSize`
+  * behaves like a fixed batch size.
+  *
+  * Every decision is counted in the given metrics, see [[IngestionMetrics.BATCHES]] and the counters following it.
+  */
+final class AdaptiveBatchController(initialSize: Int, minSize: Int, maxSize: Int, metrics: IngestionMetrics) {
+
+  import AdaptiveBatchController.*
+
+  require(
+    minSize >= 1 && minSize <= initialSize && initialSize <= maxSize,
+    s"Expected 1 <= minSize <= initialSize <= maxSize, got $minSize, $initialSize, $maxSize"
+  )
+
+  private val step              = math.max(1, initialSize / 4)
+  @volatile private var current = initialSize
+  private var avgThroughput     = 0.0
+
+  /** @return
+    *   the size of the next batch.
+    */
+  def batchSize: Int = current
+
+  /** Commits the given changes in batches of the current batch size, adapting the size after every batch.
+    *
+    * @param commit
+    *   commits a batch and returns the number of its operations that failed. A thrown exception counts as the failure
+    *   of the whole batch. Transient exceptions, see [[isTransient]], are retried and any other exception is re-thrown.
+    *   The flag given along with a batch is true if it holds changes of a failed attempt, which may have been written
+    *   in part.
+    */
+  def foreachBatch[T](changes: Iterator[T])(commit: (Seq[T], Boolean) => Int): Unit = {
+    // The changes of a failed batch, which are committed before any further ones
+    val failed  = mutable.Queue.empty[T]
+    var retries = 0
+    while (failed.nonEmpty || changes.hasNext) {
+      val size    = current
+      val batch   = new ArrayBuffer[T](size)
+      val retried = failed.nonEmpty
+      while (batch.size < size && failed.nonEmpty) batch += failed.dequeue()
+      while (batch.size < size && changes.hasNext) batch += changes.next()
+      val start = System.nanoTime()
+      Try(commit(batch.toSeq, retried)) match {
+        case Success(failures) =>
+          record(batch.size, size, System.nanoTime() - start, failures)
+          retries = 0
+        case Failure(e) =>
+          record(batch.size, size, System.nanoTime() - start, batch.size)
+          if (retries >= MAX_RETRIES || !isTransient(e)) throw e
+          retries += 1
+          logger.warn(s"Retrying a batch of ${batch.size} changes in batches of $current after: ${e.getMessage}")
+          metrics.increment(IngestionMetrics.BATCH_RETRIES)
+          failed.prependAll(batch)
+          Thread.sleep(RETRY_BACKOFF_MILLIS << (retries - 1))
+      }
+    }
+  }
+
+  /** Records the outcome of a batch of `actual` operations, committed when the batch size was `target`, and adapts the
+    * batch size accordingly. Partial batches, i.e., the last of a stream, do not affect the size unless they failed.
+    */
+  def record(actual: Int, target: Int, nanos: Long, failures: Int): Unit = synchronized {
+    metrics.increment(IngestionMetrics.BATCHES)
+    metrics.increment(IngestionMetrics.BATCHED_CHANGES, actual)
+    if (failures > 0) {
+      metrics.increment(IngestionMetrics.BATCH_FAILURES, failures)
+      resize((current * FAILURE_DECREASE).toInt)
+      // Throughput measured before the failure no longer reflects the database's state
+      avgThroughput = 0.0
+    } else if (actual == target && nanos > 0) {
+      val throughput = actual.toDouble / nanos
+      if (avgThroughput == 0.0) resize(current + step)
+      else if (throughput < avgThroughput * (1 - TOLERANCE)) resize((current * SLOWDOWN_DECREASE).toInt)
+      else resize(current + step)
+      avgThroughput =
+        if (avgThroughput == 0.0) throughput else SMOOTHING * throughput + (1 - SMOOTHING) * avgThroughput
+    }
+  }
+
+  private def resize(size: Int): Unit = {
+    val bounded = math.max(minSize, math.min(maxSize, size))
+    if (bounded > current) metrics.increment(IngestionMetrics.BATCH_GROWTHS)
+    else if (bounded < current) metrics.increment(IngestionMetrics.BATCH_SHRINKS)
+    current = bounded
+  }
+
+}
+
+object AdaptiveBatchController {
+
+  private val logger = LoggerFactory.getLogger(classOf[AdaptiveBatchController])
+
+  /** The default upper bound of adaptive batch sizes.
+    */
+  val DEFAULT_MAX_BATCH_SIZE = 2000
+
+  /** The relative drop in throughput, compared to the moving average, that is tolerated as noise.
+    */
+  private val TOLERANCE = 0.1
+
+  /** The weight of the latest batch in the moving average of throughput.
+    */
+  private val SMOOTHING = 0.3
+
+  private val SLOWDOWN_DECREASE = 0.75
+  private val FAILURE_DECREASE  = 0.5
+
+  /** The number of times in a row a batch that failed with a transient exception is retried before giving up.
+    */
+  val MAX_RETRIES = 3
+
+  /** The pause before the first retry, which doubles with every further one.
+    */
+  private val RETRY_BACKOFF_MILLIS = 100L
+
+  /** Exceptions whose class names contain any of these are considered transient, as the drivers of the supported
+    * databases do not share a common type for them.
+    */
+  private val TRANSIENT_EXCEPTION_NAMES = Seq("Timeout", "Transient", "ServiceUnavailable")
+  private val MAX_CAUSES                = 16
+
+  /** @return
+    *   true if the given exception, or any of its causes, is a timeout or is reported by the database as transient,
+    *   e.g., Neo4j's `TransientException`, in which case the batch may succeed if it is retried with a smaller size.
+    */
+  def isTransient(e: Throwable): Boolean =
+    Iterator.iterate(e)(_.getCause).takeWhile(_ != null).take(MAX_CAUSES).exists { t =>
+      t.isInstanceOf[TimeoutException] || t.isInstanceOf[InterruptedIOException] ||
+      TRANSIENT_EXCEPTION_NAMES.exists(t.getClass.getSimpleName.contains)
+    }
+
+  /** @return
+    *   a controller that always uses the given batch size, while still reporting batches and failures.
+    */
+  def fixed(size: Int, metrics: IngestionMetrics): AdaptiveBatchController =
+    new AdaptiveBatchController(size, size, size, metrics)
+
+}
@@ -0,0 +1,167 @@
+package com.github.plume.oss.drivers
+
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardOpenOption}
+import scala.collection.mutable
+
+/** A local write-ahead log of the progress of an ingestion's bulk transactions, each identified by a sequence number,
+  * so that an interrupted ingestion can be resumed. See [[IDriver.checkpointedBulkTx]].
+  *
+  * The log records, for each transaction, the node ID watermark at which it began, the number of changes of each write
+  * phase committed so far, the number of changes following them that are being written, and the watermark once it was
+  * committed. Every record is flushed to disk before the writes it describes continue, and a record torn by a crash is
+  * discarded when the log is re-opened.
+  *
+  * @param path
+  *   the file of the log, which is created if it does not exist and resumed from otherwise.
+  */
+final class BulkTxCheckpoint(val path: Path) extends AutoCloseable {
+
+  import BulkTxCheckpoint.*
+
+  private var fingerprint: Option[String] = None
+  private val committed                   = mutable.Map.empty[Int, Long]
+  private var interrupted                 = Option.empty[InFlightTx]
+
+  private val channel = {
+    val valid = replay()
+    val ch    = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+    ch.truncate(valid)
+    ch.position(valid)
+    ch
+  }
+
+  /** @return
+    *   the path at which the symbol index is saved alongside each committed transaction.
+    */
+  def symbolsPath: Path = path.resolveSibling(s"${path.getFileName}.symbols")
+
+  /** Ties the log to an ingestion identified by the given fingerprint, e.g., a hash of its input. A new log records the
+    * fingerprint, while an existing one must have been written for the same ingestion.
+    */
+  def validate(expected: String): Unit = synchronized {
+    fingerprint match {
+      case None =>
+        append(s"$FINGERPRINT $expected")
+        fingerprint = Some(expected)
+      case Some(f) if f == expected =>
+      case Some(f) =>
+        throw new IllegalStateException(
+          s"The checkpoint at $path was written for a different ingestion ($f), delete it to start over"
+        )
+    }
+  }
+
+  /** @return
+    *   true if the transaction with the given sequence number was committed.
+    */
+  def isCommitted(seq: Int): Boolean = synchronized(committed.contains(seq))
+
+  /** @return
+    *   the node ID following those assigned by all committed transactions.
+    */
+  def watermark: Long = synchronized(committed.values.maxOption.getOrElse(1L))
+
+  /** @return
+    *   the transaction that was begun but not committed, if any.
+    */
+  def inFlight: Option[InFlightTx] = synchronized(interrupted)
+
+  def begin(seq: Int, watermark: Long): Unit = synchronized {
+    append(s"$BEGIN $seq $watermark")
+    interrupted = Some(InFlightTx(seq, watermark, Map.empty, Map.empty))
+  }
+
+  /** Records that up to `count` changes of the given write phase of the transaction, following those committed, are
+    * about to be written. If the transaction is interrupted, these may have been written in part.
+    */
+  def attempt(seq: Int, phase: String, count: Int): Unit = synchronized {
+    append(s"$ATTEMPT $seq $phase $count")
+    recordAttempt(seq, phase, count)
+  }
+
+  private def recordAttempt(seq: Int, phase: String, count: Int): Unit =
+    interrupted = interrupted.filter(_.seq == seq).map(tx => tx.copy(attempted = tx.attempted + (phase -> count)))
+
+  /** Records that the first `count` changes of the given write phase of the transaction have been committed.
+    */
+  def progress(seq: Int, phase: String, count: Int): Unit = synchronized {
+    append(s"$PROGRESS $seq $phase $count")
+    recordProgress(seq, phase, count)
+  }
+
+  private def recordProgress(seq: Int, phase: String, count: Int): Unit =
+    interrupted = interrupted
+      .filter(_.seq == seq)
+      .map(tx => tx.copy(progress = tx.progress + (phase -> count), attempted = tx.attempted - phase))
+
+  def commit(seq: Int, watermark: Long): Unit = synchronized {
+    append(s"$COMMIT $seq $watermark")
+    committed.put(seq, watermark)
+    interrupted = interrupted.filterNot(_.seq == seq)
+  }
+
+  /** Closes and removes the log along with its saved symbol index, e.g., once the ingestion has completed.
+    */
+  def delete(): Unit = {
+    close()
+    Files.deleteIfExists(path)
+    Files.deleteIfExists(symbolsPath)
+  }
+
+  override def close(): Unit = synchronized {
+    if (channel.isOpen) channel.close()
+  }
+
+  private def append(record: String): Unit = {
+    channel.write(ByteBuffer.wrap(s"$record\n".getBytes(StandardCharsets.UTF_8)))
+    channel.force(false)
+  }
+
+  /** Applies the records of an existing log.
+    *
+    * @return
+    *   the length of the log up to the end of its last complete record.
+    */
+  private def replay(): Long = if (!Files.exists(path)) 0L
+  else {
+    val bytes = Files.readAllBytes(path)
+    val valid = bytes.lastIndexOf('\n'.toByte) + 1
+    new String(bytes, 0, valid, StandardCharsets.UTF_8).linesIterator.map(_.split(' ')).foreach {
+      case Array(FINGERPRINT, f)         => fingerprint = Some(f)
+      case Array(BEGIN, seq, w)          => interrupted = Some(InFlightTx(seq.toInt, w.toLong, Map.empty, Map.empty))
+      case Array(ATTEMPT, seq, ph, cnt)  => recordAttempt(seq.toInt, ph, cnt.toInt)
+      case Array(PROGRESS, seq, ph, cnt) => recordProgress(seq.toInt, ph, cnt.toInt)
+      case Array(COMMIT, seq, w) =>
+        committed.put(seq.toInt, w.toLong)
+        interrupted = interrupted.filterNot(_.seq == seq.toInt)
+      case record => throw new IllegalStateException(s"Malformed record '${record.mkString(" ")}' in $path")
+    }
+    valid
+  }
+
+}
+
+object BulkTxCheckpoint {
+
+  /** A transaction that was begun but not committed.
+    *
+    * @param watermark
+    *   the node ID at which the transaction began assigning IDs.
+    * @param progress
+    *   the number of changes committed per write phase.
+    * @param attempted
+    *   the number of changes, following those committed, that were being written when the transaction was interrupted
+    *   per write phase.
+    */
+  final case class InFlightTx(seq: Int, watermark: Long, progress: Map[String, Int], attempted: Map[String, Int])
+
+  private val FINGERPRINT = "F"
+  private val BEGIN       = "B"
+  private val ATTEMPT     = "A"
+  private val PROGRESS    = "P"
+  private val COMMIT      = "C"
+
+}
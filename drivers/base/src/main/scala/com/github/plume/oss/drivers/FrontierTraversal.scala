@@ -0,0 +1,51 @@
+package com.github.plume.oss.drivers
+
+import scala.collection.mutable
+
+/** Level-synchronous traversals over the batched traversal API of an [[IDriver]]. Rather than issuing one query per
+  * visited node, each level of the traversal expands its whole frontier at once, split into at most `batchSize` IDs
+  * per query, and all levels share a single read session of the driver.
+  */
+object FrontierTraversal {
+
+  val DEFAULT_BATCH_SIZE = 1000
+
+  /** Visits, breadth first, all nodes reachable from the given roots via outgoing edges of the given label.
+    *
+    * @param visit
+    *   called with each frontier as it is reached, starting with the roots.
+    * @return
+    *   the number of distinct nodes visited, including the roots.
+    */
+  def out(driver: IDriver, roots: Seq[Long], edge: String, batchSize: Int = DEFAULT_BATCH_SIZE)(
+    visit: Seq[Long] => Unit = _ => ()
+  ): Int = driver.withReadSession { d => traverse(roots, batchSize, visit)(d.outNeighbours(_, edge)) }
+
+  /** Visits, breadth first, all nodes reachable from the given roots via incoming edges of the given label.
+    *
+    * @param visit
+    *   called with each frontier as it is reached, starting with the roots.
+    * @return
+    *   the number of distinct nodes visited, including the roots.
+    */
+  def in(driver: IDriver, roots: Seq[Long], edge: String, batchSize: Int = DEFAULT_BATCH_SIZE)(
+    visit: Seq[Long] => Unit = _ => ()
+  ): Int = driver.withReadSession { d => traverse(roots, batchSize, visit)(d.inNeighbours(_, edge)) }
+
+  private def traverse(roots: Seq[Long], batchSize: Int, visit: Seq[Long] => Unit)(
+    expand: Seq[Long] => Map[Long, Seq[Long]]
+  ): Int = {
+    val visited  = mutable.HashSet.from(roots)
+    var frontier = visited.toSeq
+    while (frontier.nonEmpty) {
+      visit(frontier)
+      frontier = frontier
+        .grouped(batchSize)
+        .flatMap(expand(_).valuesIterator.flatten)
+        .filter(visited.add)
+        .toSeq
+    }
+    visited.size
+  }
+
+}
@@ -3,21 +3,32 @@ package com.github.plume.oss.drivers
 import io.shiftleft.codepropertygraph.generated.PropertyNames
 import io.shiftleft.codepropertygraph.generated.nodes.*
 import org.slf4j.LoggerFactory
-import overflowdb.BatchedUpdate.DiffOrBuilder
-import overflowdb.DetachedNodeGeneric
+import overflowdb.BatchedUpdate.{Change, DiffOrBuilder}
+import overflowdb.{BatchedUpdate, DetachedNodeData, DetachedNodeGeneric}
 
+import java.nio.file.{Files, StandardCopyOption}
+import java.util
+import java.util.Collections
 import java.util.concurrent.atomic.AtomicLong
 import scala.collection.concurrent.TrieMap
-import scala.collection.mutable
 import scala.collection.mutable.ListBuffer
+import scala.jdk.CollectionConverters.IteratorHasAsScala
 
 /** The interface for all methods that should be implemented by the driver's underlying database query language.
   */
 trait IDriver extends AutoCloseable {
 
   // ID Tracking
-  protected val currId = new AtomicLong(1)
-  private val nodeId   = TrieMap.empty[overflowdb.NodeOrDetachedNode, Long]
+  protected val currId         = new AtomicLong(1)
+  @volatile private var lastId = Long.MaxValue
+  private val nodeId           = TrieMap.empty[overflowdb.NodeOrDetachedNode, Long]
+  // The IDs of nodes whose changes were spilled to disk, held weakly so that the nodes themselves may be collected
+  private val spilledNodeId =
+    Collections.synchronizedMap(new util.WeakHashMap[overflowdb.NodeOrDetachedNode, java.lang.Long]())
+
+  /** Timings of the phases of `bulkTx` and of the passes feeding into it.
+    */
+  val metrics: IngestionMetrics = new IngestionMetrics()
 
   /** Will return true if the database is connected, false if otherwise.
     */
@@ -45,6 +56,240 @@ trait IDriver extends AutoCloseable {
     */
   def propertyFromNodes(nodeType: String, keys: String*): List[Map[String, Any]]
 
+  /** Obtains, for each of the given nodes, the IDs of the nodes reachable via a single outgoing edge of the given
+    * label. Nodes without such neighbours, or that do not exist, are absent from the result.
+    */
+  def outNeighbours(nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]]
+
+  /** Obtains, for each of the given nodes, the IDs of the nodes reachable via a single incoming edge of the given
+    * label. Nodes without such neighbours, or that do not exist, are absent from the result.
+    */
+  def inNeighbours(nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]]
+
+  /** Obtains properties from the nodes with the given IDs. Properties not set on a node are given their default value.
+    * Nodes that do not exist are absent from the result.
+    */
+  def propertiesFromIds(nodeIds: Seq[Long], keys: String*): Map[Long, Map[String, Any]]
+
+  /** Runs the given block with a driver whose traversal API calls, made from the calling thread, share a single read
+    * transaction. Drivers without transactions simply pass themselves to the block.
+    */
+  def withReadSession[T](f: IDriver => T): T = f(this)
+
+  /** Signals that a bulk load is about to begin. Drivers may drop or postpone secondary indexes until [[endBulkLoad]]
+    * so that inserted nodes do not pay for index maintenance. Indexes and constraints required for correct writes are
+    * kept.
+    */
+  def beginBulkLoad(): Unit = {}
+
+  /** Ends a bulk load begun with [[beginBulkLoad]] by building any deferred indexes. Databases that populate indexes in
+    * the background may return before they are online, see [[indexesOnline]].
+    */
+  def endBulkLoad(): Unit = {}
+
+  /** @return
+    *   true if all secondary indexes of the database are built and available to queries.
+    */
+  def indexesOnline: Boolean = true
+
+  /** Restricts the IDs this driver assigns to new nodes to the inclusive range from `first` to `last`, so that several
+    * processes may write to the same database without their IDs colliding. Assigning an ID beyond the range fails.
+    * Drivers whose database assigns node IDs itself ignore the range.
+    */
+  def leaseIds(first: Long, last: Long): Unit = {
+    require(first > 0 && first <= last, s"Invalid ID range [$first, $last]")
+    lastId = last
+    currId.set(first)
+  }
+
+  /** @return
+    *   true if node IDs are assigned by this driver, or false if they are assigned by the database.
+    */
+  def assignsNodeIds: Boolean = true
+
+  private def nextId(): Long = {
+    val id = currId.getAndIncrement()
+    if (id > lastId) throw new IllegalStateException(s"The IDs leased to this driver, up to $lastId, are exhausted")
+    id
+  }
+
+  @volatile private var maxBatchSize: Option[Int] = None
+  private val batchControllers                     = TrieMap.empty[String, AdaptiveBatchController]
+
+  /** Lets the driver adapt the size of its write transactions to the throughput of the database, starting from its
+    * configured transaction size and growing up to the given maximum. See [[AdaptiveBatchController]].
+    */
+  def enableAdaptiveBatching(maxSize: Int = AdaptiveBatchController.DEFAULT_MAX_BATCH_SIZE): Unit = {
+    maxBatchSize = Some(maxSize)
+    batchControllers.clear()
+  }
+
+  /** Restores write transactions of the configured, fixed size, see [[enableAdaptiveBatching]].
+    */
+  def disableAdaptiveBatching(): Unit = {
+    maxBatchSize = None
+    batchControllers.clear()
+  }
+
+  /** @return
+    *   the batch controller of the given write phase, e.g., [[IngestionMetrics.BULK_TX_NODES]], which starts from the
+    *   given transaction size and keeps it fixed unless adaptive batching is enabled.
+    */
+  private def batchController(phase: String, txMax: Int): AdaptiveBatchController =
+    batchControllers.getOrElseUpdate(
+      phase,
+      maxBatchSize match {
+        case Some(max) => new AdaptiveBatchController(txMax, 1, math.max(max, txMax), metrics)
+        case None      => AdaptiveBatchController.fixed(txMax, metrics)
+      }
+    )
+
+  /** @return
+    *   the current transaction size of each write phase.
+    */
+  def batchSizes: Map[String, Int] = batchControllers.map { case (phase, c) => phase -> c.batchSize }.toMap
+
+  /** @return
+    *   true if bulk transactions are being recorded in a checkpoint, see [[resumeFrom]].
+    */
+  def isCheckpointing: Boolean = checkpoint.isDefined
+
+  @volatile private var checkpoint: Option[BulkTxCheckpoint]             = None
+  @volatile private var activeTx: Option[BulkTxCheckpoint.InFlightTx]    = None
+  @volatile private var replayingTx: Option[BulkTxCheckpoint.InFlightTx] = None
+
+  /** Records the progress of [[checkpointedBulkTx]] in the given checkpoint, resuming from where it left off. New node
+    * IDs continue after those of the committed transactions, and the symbol index saved with the last of them is
+    * restored.
+    */
+  def resumeFrom(checkpoint: BulkTxCheckpoint): Unit = {
+    this.checkpoint = Some(checkpoint)
+    if (currId.get() < checkpoint.watermark) currId.set(checkpoint.watermark)
+    if (Files.exists(checkpoint.symbolsPath)) symbolIndex.load(checkpoint.symbolsPath)
+  }
+
+  /** Forgets the state of the ingestion this driver was used for, i.e., the checkpoint it recorded to, see
+    * [[resumeFrom]], the IDs it tracked for the ingestion's nodes, and its symbol index. The driver's connection, the
+    * database, and the IDs that remain to be assigned are kept, so that the driver can be reused by another ingestion.
+    */
+  def endIngestion(): Unit = {
+    checkpoint = None
+    activeTx = None
+    replayingTx = None
+    nodeId.clear()
+    spilledNodeId.clear()
+    symbolIndex.clear()
+  }
+
+  /** Executes the given changes like [[bulkTx]] as the transaction with the given sequence number of an ingestion. If
+    * a checkpoint is being recorded, see [[resumeFrom]], the transaction's progress is logged after every batch, and
+    * any failed operation aborts it. A transaction that was interrupted is replayed from its last logged batch, where
+    * its nodes are given the IDs of the interrupted attempt and changes that may have been written by it are skipped.
+    * This relies on the same changes being given in the same order.
+    */
+  def checkpointedBulkTx(seq: Int, dg: DiffOrBuilder): Int = checkpoint match {
+    case None => bulkTx(dg)
+    case Some(cp) =>
+      val tx = cp.inFlight.filter(_.seq == seq) match {
+        case Some(interrupted) =>
+          currId.set(interrupted.watermark)
+          replayingTx = Some(interrupted)
+          interrupted
+        case None =>
+          cp.begin(seq, currId.get())
+          BulkTxCheckpoint.InFlightTx(seq, currId.get(), Map.empty, Map.empty)
+      }
+      activeTx = Some(tx)
+      try {
+        val n       = bulkTx(dg)
+        val symbols = cp.symbolsPath.resolveSibling(s"${cp.symbolsPath.getFileName}.tmp")
+        symbolIndex.save(symbols)
+        Files.move(symbols, cp.symbolsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        cp.commit(seq, currId.get())
+        n
+      } finally {
+        activeTx = None
+        replayingTx = None
+      }
+  }
+
+  /** Commits the given changes of a write phase of [[bulkTx]], e.g., [[IngestionMetrics.BULK_TX_NODES]], in batches
+    * starting at the given transaction size, see [[enableAdaptiveBatching]]. Within a [[checkpointedBulkTx]], the size
+    * of each batch is logged before it is committed and the progress after, and a batch with failed operations aborts
+    * the transaction. Changes of a batch that is retried after a transient exception, see
+    * [[AdaptiveBatchController.foreachBatch]], are skipped if they were written by the failed attempt, see [[written]].
+    *
+    * @param commit
+    *   commits a batch and returns the number of its operations that failed.
+    */
+  protected def commitBatches[T <: Change](phase: String, txMax: Int, changes: Iterator[T])(
+    commit: Seq[T] => Int
+  ): Unit = (activeTx, checkpoint) match {
+    case (Some(tx), Some(cp)) =>
+      var committed = replayingTx.flatMap(_.progress.get(phase)).getOrElse(0)
+      // Changes committed before an interruption are skipped, though their nodes still take up their former IDs
+      var skipped = 0
+      while (skipped < committed && changes.hasNext) {
+        skipWritten(changes.next())
+        skipped += 1
+      }
+      // The changes in flight when the transaction was interrupted may have been written in part, regardless of the
+      // size of the batches they are replayed in
+      var uncertain = replayingTx.flatMap(_.attempted.get(phase)).getOrElse(0)
+      // The end of the changes that may have been written, which is logged before each batch is
+      var attempted = committed + uncertain
+      batchController(phase, txMax).foreachBatch(changes) { (batch, retried) =>
+        val (inFlight, rest) = batch.splitAt(uncertain)
+        uncertain -= inFlight.size
+        val ops = if (retried) unwritten(batch) else unwritten(inFlight) ++ rest
+        attempted = math.max(attempted, committed + batch.size)
+        cp.attempt(tx.seq, phase, attempted - committed)
+        val failures = if (ops.isEmpty) 0 else commit(ops)
+        if (failures > 0)
+          throw new IllegalStateException(
+            s"$failures operations of bulk transaction ${tx.seq} failed in $phase, resume it from its checkpoint"
+          )
+        committed += batch.size
+        cp.progress(tx.seq, phase, committed)
+        failures
+      }
+    case _ =>
+      batchController(phase, txMax).foreachBatch(changes) { (batch, retried) =>
+        val ops = if (retried) unwritten(batch) else batch
+        if (ops.isEmpty) 0 else commit(ops)
+      }
+  }
+
+  /** Determines which of the given changes of a write phase were already written to the database, see
+    * [[commitBatches]]. Only node and edge creations are checked, and other changes are never considered written. This
+    * checks each change on its own with [[exists]], and drivers that can check a whole batch at once should override
+    * it.
+    *
+    * @return
+    *   whether each of the given changes was written, in the same order.
+    */
+  protected def written(changes: Seq[Change]): Seq[Boolean] = changes.map {
+    case node: DetachedNodeData         => exists(node.pID)
+    case edge: BatchedUpdate.CreateEdge => exists(edge.src.pID, edge.dst.pID, edge.label)
+    case _                              => false
+  }
+
+  /** @return
+    *   the given changes that were not yet written, see [[written]]. The nodes that were take up their former IDs.
+    */
+  private def unwritten[T <: Change](changes: Seq[T]): Seq[T] =
+    if (changes.isEmpty) changes
+    else
+      changes.zip(written(changes)).flatMap { (change, isWritten) =>
+        if (isWritten) skipWritten(change)
+        Option.unless(isWritten)(change)
+      }
+
+  private def skipWritten(change: Change): Unit = change match {
+    case node: DetachedNodeData => node.setRefOrId(node.pID)
+    case _                      =>
+  }
+
   /** To handle the case where databases don't support lists, we simply serialize these as a comma-separated string.
     * @param properties
     *   the property map.
@@ -93,11 +338,52 @@ trait IDriver extends AutoCloseable {
     /** @return
       *   the internally tracked Plume ID.
       */
-    def pID: Long = nodeId.getOrElseUpdate(node, currId.getAndIncrement())
+    def pID: Long = nodeId.get(node) match {
+      case Some(id) => id
+      case None =>
+        Option(spilledNodeId.get(node)) match {
+          case Some(id) => id.longValue()
+          case None     => nodeId.getOrElseUpdate(node, nextId())
+        }
+    }
 
   }
 
-  protected val methodFullNameToNode = mutable.Map.empty[String, Any]
+  /** Assigns the given node its ID, if it has none yet, and stops the driver from keeping the node alive to remember
+    * it. Used once the node's changes have been spilled to disk, see [[SpillableDiffBuffer]].
+    *
+    * @return
+    *   the ID of the node.
+    */
+  private[drivers] def releaseId(node: overflowdb.NodeOrDetachedNode): Long = {
+    val id = node.pID
+    spilledNodeId.put(node, id)
+    nodeId.remove(node)
+    id
+  }
+
+  /** Lets the given node, which stands in for a node whose changes were spilled to disk, take up the given ID.
+    */
+  private[drivers] def restoreId(node: overflowdb.NodeOrDetachedNode, id: Long): Unit = spilledNodeId.put(node, id)
+
+  /** A concurrent index from the full names of METHOD, TYPE_DECL, and TYPE nodes to their IDs. This is populated as
+    * nodes are committed via [[bulkTx]] so that later passes may link against these without querying the database.
+    */
+  val symbolIndex: SymbolIndex = new SymbolIndex()
+
+  /** @return
+    *   the ID of the METHOD node with the given full name, if it has been committed by this driver.
+    */
+  def methodFullNameToNode(fullName: String): Option[Long] = symbolIndex.method(fullName)
+
+  /** Adds all nodes of the given diff to the symbol index. Should be called once the driver has assigned IDs to the
+    * nodes in the diff.
+    */
+  protected def indexSymbols(dg: DiffOrBuilder): Unit =
+    dg.iterator().asScala.foreach {
+      case node: DetachedNodeData => symbolIndex.indexNode(node)
+      case _                      =>
+    }
 
   protected def NODES_IN_SCHEMA: Seq[String] = Seq(
     MetaData.Label,
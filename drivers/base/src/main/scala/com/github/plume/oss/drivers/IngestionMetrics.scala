@@ -0,0 +1,115 @@
+package com.github.plume.oss.drivers
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+import scala.jdk.CollectionConverters.MapHasAsScala
+
+/** Accumulates the time spent in, and the counts observed by, the named phases of graph construction and ingestion. All
+  * operations are thread-safe so that phases run by parallel passes can record into the same instance. Phases that run
+  * on multiple threads at once accumulate the sum of their per-thread times.
+  */
+final class IngestionMetrics {
+
+  private val nanos    = new ConcurrentHashMap[String, LongAdder]()
+  private val counters = new ConcurrentHashMap[String, LongAdder]()
+
+  /** Runs the given block and adds its wall-clock time to the given phase.
+    */
+  def time[T](phase: String)(f: => T): T = {
+    val start = System.nanoTime()
+    try {
+      f
+    } finally {
+      addNanos(phase, System.nanoTime() - start)
+    }
+  }
+
+  def addNanos(phase: String, n: Long): Unit = nanos.computeIfAbsent(phase, _ => new LongAdder()).add(n)
+
+  def increment(counter: String, n: Long = 1L): Unit = counters.computeIfAbsent(counter, _ => new LongAdder()).add(n)
+
+  /** @return
+    *   the total nanoseconds recorded for the given phase.
+    */
+  def nanosOf(phase: String): Long = Option(nanos.get(phase)).map(_.sum()).getOrElse(0L)
+
+  /** @return
+    *   the total recorded for the given counter.
+    */
+  def countOf(counter: String): Long = Option(counters.get(counter)).map(_.sum()).getOrElse(0L)
+
+  /** @return
+    *   a snapshot of all phase timings in nanoseconds.
+    */
+  def timings: Map[String, Long] = nanos.asScala.map { case (k, v) => k -> v.sum() }.toMap
+
+  /** @return
+    *   a snapshot of all counters.
+    */
+  def counts: Map[String, Long] = counters.asScala.map { case (k, v) => k -> v.sum() }.toMap
+
+  def reset(): Unit = {
+    nanos.clear()
+    counters.clear()
+  }
+
+}
+
+object IngestionMetrics {
+
+  /** Extracting class files from the input archives or directories.
+    */
+  val EXTRACT_CLASSES = "extractClasses"
+
+  /** Configuring Soot and loading the extracted classes into the Soot scene.
+    */
+  val SOOT_LOAD = "sootLoad"
+
+  /** Generating the AST diff from all loaded classes, including merging the per-part diffs.
+    */
+  val AST_BUILD = "astBuild"
+
+  /** Merging per-part diffs into the pass's diff. Summed across threads.
+    */
+  val DIFF_MERGE = "diffMerge"
+
+  /** Writing a diff to the database with `bulkTx`, of which the following are the sub-phases.
+    */
+  val BULK_TX            = "bulkTx"
+  val BULK_TX_NODES      = "bulkTx.nodes"
+  val BULK_TX_PROPERTIES = "bulkTx.properties"
+  val BULK_TX_EDGES      = "bulkTx.edges"
+
+  /** The number of changes committed with `bulkTx`.
+    */
+  val CHANGES = "changes"
+
+  /** The number of nodes committed with `bulkTx`.
+    */
+  val NODES = "nodes"
+
+  /** The number of string property values replaced by an existing, equal instance before being committed.
+    */
+  val INTERNED_STRINGS = "internedStrings"
+
+  /** The approximate number of bytes of payload sent to a remote database. In-process databases do not report this.
+    */
+  val BYTES_SENT = "bytesSent"
+
+  /** The number of transactions committed by an [[AdaptiveBatchController]], the changes they contained, the operations
+    * within them that failed, how often the batch size was grown or shrunk, and how often a failed batch was retried.
+    */
+  val BATCHES         = "batches"
+  val BATCHED_CHANGES = "batches.changes"
+  val BATCH_FAILURES  = "batches.failures"
+  val BATCH_GROWTHS   = "batches.growths"
+  val BATCH_SHRINKS   = "batches.shrinks"
+  val BATCH_RETRIES   = "batches.retries"
+
+  /** Serializing pending changes to disk once the heap threshold of a [[SpillableDiffBuffer]] was crossed, and the
+    * number of changes spilled.
+    */
+  val SPILL           = "spill"
+  val SPILLED_CHANGES = "spilledChanges"
+
+}
@@ -0,0 +1,354 @@
+package com.github.plume.oss.drivers
+
+import io.shiftleft.codepropertygraph.generated.nodes.NewNode
+import overflowdb.BatchedUpdate.DiffGraphBuilder
+import overflowdb.{BatchedUpdate, DetachedNodeData, DetachedNodeGeneric, Node, NodeOrDetachedNode}
+
+import java.io.{BufferedOutputStream, DataOutputStream}
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardOpenOption}
+import scala.collection.mutable.ArrayBuffer
+import scala.jdk.CollectionConverters.IteratorHasAsScala
+import scala.util.Using
+
+/** A buffer of pending changes for the given driver that is held on the heap until heap usage crosses a threshold,
+  * after which the changes are serialized to compact segment files on disk. This bounds the size of the graph that can
+  * be built before it is written by the disk rather than the heap.
+  *
+  * Spilled nodes are assigned their IDs as they are spilled, so that the edges between them can be spilled as well.
+  * Changes to the properties of stored nodes are kept on the heap. Pending changes are serialized by the thread whose
+  * addition crossed the threshold, while other threads continue to add changes, and are appended to the current
+  * segment until it holds [[RECORDS_PER_SEGMENT]] nodes or edges. The buffer's changes are written by
+  * [[replayNodes]], a bulk transaction of the changes moved into a builder by [[drainTo]], and [[replayEdges]], in that
+  * order, so that every node is written before the edges that refer to it.
+  *
+  * @param heapPercentageThreshold
+  *   the percentage of the maximum heap in use above which pending changes are spilled, as with OverflowDB's
+  *   `heapPercentageThreshold`.
+  * @param minSpillSize
+  *   the least number of pending changes worth spilling, so that the heap is not spilled piecemeal while garbage from
+  *   a previous spill has yet to be collected.
+  */
+final class SpillableDiffBuffer(
+  driver: IDriver,
+  heapPercentageThreshold: Int,
+  minSpillSize: Int = SpillableDiffBuffer.DEFAULT_MIN_SPILL_SIZE
+) extends AutoCloseable {
+
+  import SpillableDiffBuffer.*
+
+  require(driver.assignsNodeIds, "Only changes to databases whose node IDs are assigned by the driver can be spilled")
+
+  private val dir = Files.createTempDirectory("plume-spill-")
+  // Guarded by this buffer's monitor
+  private var pending = new DiffGraphBuilder()
+  // Guarded by the spill lock, which is never acquired while holding the monitor
+  private val spillLock = new Object
+  private val segments  = ArrayBuffer.empty[Segment]
+  private var writer    = Option.empty[SegmentWriter]
+  private var retained  = new DiffGraphBuilder()
+
+  /** Adds the given changes to the buffer, spilling all pending changes to disk if the heap usage calls for it.
+    */
+  def add(diff: DiffGraphBuilder): Unit = {
+    val toSpill = synchronized {
+      pending.absorb(diff)
+      if (pending.size() >= minSpillSize && heapPercentage >= heapPercentageThreshold) {
+        val full = pending
+        pending = new DiffGraphBuilder()
+        Some(full)
+      } else None
+    }
+    toSpill.foreach(spill)
+  }
+
+  /** @return
+    *   the number of changes spilled to disk.
+    */
+  def spilledChanges: Long = spillLock.synchronized(allSegments.map(s => s.nodeCount.toLong + s.edgeCount).sum)
+
+  /** @return
+    *   the number of nodes spilled to disk.
+    */
+  def spilledNodes: Long = spillLock.synchronized(allSegments.map(_.nodeCount.toLong).sum)
+
+  /** Moves all changes held on the heap into the given builder.
+    */
+  def drainTo(builder: DiffGraphBuilder): Unit = spillLock.synchronized {
+    builder.absorb(retained)
+    retained = new DiffGraphBuilder()
+    synchronized {
+      builder.absorb(pending)
+      pending = new DiffGraphBuilder()
+    }
+  }
+
+  /** Writes all spilled nodes to the driver in file order.
+    *
+    * @return
+    *   the number of nodes written.
+    */
+  def replayNodes(): Int = replay(finishedSegments().map(s => s.nodes -> s.nodeCount)) { (buf, diff) =>
+    val id   = buf.getLong()
+    val node = new DetachedNodeGeneric(readString(buf), readProperties(buf)*)
+    driver.restoreId(node, id)
+    diff.addNode(node)
+  }
+
+  /** Writes all spilled edges to the driver in file order. Must follow [[replayNodes]] and the bulk transaction of the
+    * changes held on the heap.
+    *
+    * @return
+    *   the number of edges written.
+    */
+  def replayEdges(): Int = replay(finishedSegments().map(s => s.edges -> s.edgeCount)) { (buf, diff) =>
+    val src = readEndpoint(buf)
+    val dst = readEndpoint(buf)
+    diff.addEdge(src, dst, readString(buf), readProperties(buf)*)
+  }
+
+  /** Removes all segment files.
+    */
+  override def close(): Unit = spillLock.synchronized {
+    finishedSegments().foreach { s =>
+      Files.deleteIfExists(s.nodes)
+      Files.deleteIfExists(s.edges)
+    }
+    segments.clear()
+    Files.deleteIfExists(dir)
+  }
+
+  /** @return
+    *   the finished segments and the one being written, if any.
+    */
+  private def allSegments: Seq[Segment] = segments.toSeq ++ writer.map(_.segment)
+
+  /** Finishes the segment being written, if any, so that all spilled changes can be read.
+    *
+    * @return
+    *   all segments.
+    */
+  private def finishedSegments(): Seq[Segment] = spillLock.synchronized {
+    writer.foreach(w => segments += w.finish())
+    writer = None
+    segments.toSeq
+  }
+
+  /** @return
+    *   the segment to append to, which is rolled over once full.
+    */
+  private def currentWriter(): SegmentWriter = {
+    if (writer.exists(_.isFull)) finishedSegments()
+    writer.getOrElse {
+      val w = new SegmentWriter(segments.size)
+      writer = Some(w)
+      w
+    }
+  }
+
+  private def spill(changes: DiffGraphBuilder): Unit = spillLock.synchronized {
+    driver.metrics.time(IngestionMetrics.SPILL) {
+      var spilled = 0L
+      changes.iterator().asScala.foreach {
+        case node: DetachedNodeData =>
+          currentWriter().writeNode(release(node), node.label(), properties(node))
+          spilled += 1
+        case edge: BatchedUpdate.CreateEdge =>
+          currentWriter().writeEdge(edge, endpointId(edge.src), endpointId(edge.dst))
+          spilled += 1
+        case c: BatchedUpdate.SetNodeProperty => retained.setNodeProperty(c.node, c.label, c.value)
+        case c: BatchedUpdate.RemoveNode      => retained.removeNode(c.node)
+        case c: BatchedUpdate.RemoveEdge      => retained.removeEdge(c.edge)
+        case c => throw new UnsupportedOperationException(s"Unable to spill a change of type ${c.getClass.getName}")
+      }
+      driver.metrics.increment(IngestionMetrics.SPILLED_CHANGES, spilled)
+    }
+  }
+
+  private def endpointId(node: NodeOrDetachedNode): Long = node match {
+    case stored: Node           => stored.id()
+    case data: DetachedNodeData => release(data)
+  }
+
+  /** Assigns the given node its ID ahead of it being written, so that changes held on the heap which refer to it, e.g.,
+    * edges, find the ID as drivers expect after the node is created.
+    */
+  private def release(node: DetachedNodeData): Long = {
+    val id = driver.releaseId(node)
+    node.setRefOrId(id)
+    id
+  }
+
+  private def readEndpoint(buf: ByteBuffer): DetachedNodeGeneric = {
+    val id   = buf.getLong()
+    val node = new DetachedNodeGeneric(readString(buf))
+    node.setRefOrId(id)
+    driver.restoreId(node, id)
+    node
+  }
+
+  private def replay(files: Seq[(Path, Int)])(decode: (ByteBuffer, DiffGraphBuilder) => Unit): Int =
+    files.map { case (path, count) =>
+      Using.resource(FileChannel.open(path, StandardOpenOption.READ)) { channel =>
+        val buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+        (0 until count)
+          .grouped(REPLAY_BATCH_SIZE)
+          .map { chunk =>
+            val diff = new DiffGraphBuilder()
+            chunk.foreach(_ => decode(buf, diff))
+            driver.bulkTx(diff)
+          }
+          .sum
+      }
+    }.sum
+
+  /** Writes the nodes and edges of a segment to their own files.
+    */
+  private final class SegmentWriter(index: Int) {
+
+    private val nodes     = dir.resolve(f"$index%06d.nodes")
+    private val edges     = dir.resolve(f"$index%06d.edges")
+    private val nodeOut   = newOutput(nodes)
+    private val edgeOut   = newOutput(edges)
+    private var nodeCount = 0
+    private var edgeCount = 0
+
+    def isFull: Boolean = nodeCount >= RECORDS_PER_SEGMENT || edgeCount >= RECORDS_PER_SEGMENT
+
+    def writeNode(id: Long, label: String, properties: Seq[(String, Any)]): Unit = {
+      nodeOut.writeLong(id)
+      writeString(nodeOut, label)
+      writeProperties(nodeOut, properties)
+      nodeCount += 1
+    }
+
+    def writeEdge(edge: BatchedUpdate.CreateEdge, srcId: Long, dstId: Long): Unit = {
+      edgeOut.writeLong(srcId)
+      writeString(edgeOut, label(edge.src))
+      edgeOut.writeLong(dstId)
+      writeString(edgeOut, label(edge.dst))
+      writeString(edgeOut, edge.label)
+      writeProperties(edgeOut, Option(edge.propertiesAndKeys).toSeq.flatMap(pairs))
+      edgeCount += 1
+    }
+
+    /** @return
+      *   the segment as written so far.
+      */
+    def segment: Segment = Segment(nodes, nodeCount, edges, edgeCount)
+
+    def finish(): Segment = {
+      nodeOut.close()
+      edgeOut.close()
+      segment
+    }
+
+    private def newOutput(path: Path): DataOutputStream =
+      new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))
+
+  }
+
+}
+
+object SpillableDiffBuffer {
+
+  /** The default least number of pending changes worth spilling.
+    */
+  val DEFAULT_MIN_SPILL_SIZE = 16384
+
+  /** The number of nodes or edges written per segment file, which bounds the size of each memory-mapped file.
+    */
+  val RECORDS_PER_SEGMENT = 1 << 18
+
+  /** The number of spilled changes written per bulk transaction when replaying.
+    */
+  private val REPLAY_BATCH_SIZE = 10000
+
+  private val STRING_VALUE: Byte  = 0
+  private val INT_VALUE: Byte     = 1
+  private val LONG_VALUE: Byte    = 2
+  private val BOOLEAN_VALUE: Byte = 3
+  private val DOUBLE_VALUE: Byte  = 4
+  private val LIST_VALUE: Byte    = 5
+
+  private case class Segment(nodes: Path, nodeCount: Int, edges: Path, edgeCount: Int)
+
+  private def heapPercentage: Long = {
+    val runtime = Runtime.getRuntime
+    (runtime.totalMemory() - runtime.freeMemory()) * 100 / runtime.maxMemory()
+  }
+
+  private def label(node: NodeOrDetachedNode): String = node match {
+    case data: DetachedNodeData => data.label()
+    case stored: Node           => stored.label()
+  }
+
+  private def properties(node: DetachedNodeData): Seq[(String, Any)] = node match {
+    case n: NewNode             => n.properties.toSeq
+    case g: DetachedNodeGeneric => pairs(g.keyvalues)
+    case _                      => Seq.empty
+  }
+
+  private def pairs(keyValues: Array[AnyRef]): Seq[(String, Any)] =
+    keyValues.grouped(2).collect { case Array(k: String, v) => k -> v }.toSeq
+
+  private def writeString(out: DataOutputStream, s: String): Unit = {
+    val bytes = s.getBytes(StandardCharsets.UTF_8)
+    out.writeInt(bytes.length)
+    out.write(bytes)
+  }
+
+  private def readString(buf: ByteBuffer): String = {
+    val bytes = new Array[Byte](buf.getInt())
+    buf.get(bytes)
+    new String(bytes, StandardCharsets.UTF_8)
+  }
+
+  private def writeProperties(out: DataOutputStream, properties: Seq[(String, Any)]): Unit = {
+    out.writeInt(properties.size)
+    properties.foreach { case (k, v) =>
+      writeString(out, k)
+      writeValue(out, v)
+    }
+  }
+
+  private def writeValue(out: DataOutputStream, value: Any): Unit = value match {
+    case x: Int     => out.writeByte(INT_VALUE); out.writeInt(x)
+    case x: Long    => out.writeByte(LONG_VALUE); out.writeLong(x)
+    case x: Boolean => out.writeByte(BOOLEAN_VALUE); out.writeBoolean(x)
+    case x: Double  => out.writeByte(DOUBLE_VALUE); out.writeDouble(x)
+    case xs: Iterable[?] =>
+      out.writeByte(LIST_VALUE)
+      out.writeInt(xs.size)
+      xs.foreach(writeValue(out, _))
+    case xs: Array[?] => writeValue(out, xs.toSeq)
+    case x            => out.writeByte(STRING_VALUE); writeString(out, x.toString)
+  }
+
+  /** @return
+    *   the properties read, alternating between keys and values as accepted by [[DetachedNodeGeneric]].
+    */
+  private def readProperties(buf: ByteBuffer): Array[AnyRef] = {
+    val xs = new Array[AnyRef](buf.getInt() * 2)
+    var i  = 0
+    while (i < xs.length) {
+      xs(i) = readString(buf)
+      xs(i + 1) = readValue(buf)
+      i += 2
+    }
+    xs
+  }
+
+  private def readValue(buf: ByteBuffer): AnyRef = buf.get() match {
+    case INT_VALUE     => Int.box(buf.getInt())
+    case LONG_VALUE    => Long.box(buf.getLong())
+    case BOOLEAN_VALUE => Boolean.box(buf.get() != 0)
+    case DOUBLE_VALUE  => Double.box(buf.getDouble())
+    case LIST_VALUE    => IndexedSeq.fill(buf.getInt())(readValue(buf))
+    case STRING_VALUE  => readString(buf)
+    case tag           => throw new IllegalStateException(s"Unknown property type tag $tag in spilled changes")
+  }
+
+}
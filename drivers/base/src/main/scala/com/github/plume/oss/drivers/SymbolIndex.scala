@@ -0,0 +1,196 @@
+package com.github.plume.oss.drivers
+
+import io.shiftleft.codepropertygraph.generated.PropertyNames
+import io.shiftleft.codepropertygraph.generated.nodes.{Method, NewNode, Type, TypeDecl}
+import overflowdb.{DetachedNodeData, DetachedNodeGeneric, Node}
+
+import java.io.*
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLongArray}
+import java.util.concurrent.locks.{Lock, ReentrantReadWriteLock}
+import scala.util.Using
+
+/** A concurrent, driver-side index from the full names of METHOD, TYPE_DECL, and TYPE nodes to their node IDs.
+  *
+  * Full names are stored once in a shared string dictionary which maps each name to a dense integer code. Each indexed
+  * label then keeps a growable `long` array addressed by this code, so that a lookup costs one hash probe and one array
+  * read, and a name shared by a TYPE and a TYPE_DECL is only held in memory once. Writes to the arrays hold the read
+  * side of a lock whose write side is held while the arrays are replaced, so that no write is lost to a resize.
+  */
+final class SymbolIndex {
+
+  import SymbolIndex.*
+
+  private val dictionary = new ConcurrentHashMap[String, Integer]()
+  private val nextCode   = new AtomicInteger(0)
+  private val resizeLock = new ReentrantReadWriteLock()
+  @volatile private var slots: Array[AtomicLongArray] =
+    Array.fill(INDEXED_LABELS.size)(emptySlots(INITIAL_CAPACITY))
+
+  /** @return
+    *   true if the given label is one tracked by this index.
+    */
+  def isIndexed(label: String): Boolean = INDEXED_LABELS.contains(label)
+
+  /** Associates the full name of a node of the given label with the given node ID. Labels not tracked by this index are
+    * ignored.
+    */
+  def put(label: String, fullName: String, id: Long): Unit = INDEXED_LABELS.indexOf(label) match {
+    case -1 =>
+    case labelIdx =>
+      val code: Int = dictionary.computeIfAbsent(fullName, _ => Integer.valueOf(nextCode.getAndIncrement()))
+      var written = false
+      // A concurrent clear may shrink the slots again between growing them and writing
+      while (!written) {
+        ensureCapacity(code + 1)
+        written = locked(resizeLock.readLock()) {
+          val arr = slots(labelIdx)
+          if (code < arr.length()) arr.set(code, id)
+          code < arr.length()
+        }
+      }
+  }
+
+  /** Looks up the node ID of the node with the given label and full name.
+    */
+  def get(label: String, fullName: String): Option[Long] = INDEXED_LABELS.indexOf(label) match {
+    case -1 => None
+    case labelIdx =>
+      Option(dictionary.get(fullName)).map(_.intValue()).flatMap { code =>
+        val arr = slots(labelIdx)
+        if (code < arr.length()) Option(arr.get(code)).filter(_ != ABSENT) else None
+      }
+  }
+
+  def method(fullName: String): Option[Long] = get(Method.Label, fullName)
+
+  def typeDecl(fullName: String): Option[Long] = get(TypeDecl.Label, fullName)
+
+  def typ(fullName: String): Option[Long] = get(Type.Label, fullName)
+
+  /** @return
+    *   all full names indexed under the given label.
+    */
+  def fullNames(label: String): Iterator[String] = {
+    import scala.jdk.CollectionConverters.IteratorHasAsScala
+    dictionary.keySet().iterator().asScala.filter(get(label, _).isDefined)
+  }
+
+  /** @return
+    *   the number of entries across all indexed labels.
+    */
+  def size: Int = slots.map { arr =>
+    (0 until math.min(nextCode.get(), arr.length())).count(arr.get(_) != ABSENT)
+  }.sum
+
+  /** Indexes the given node if it is a METHOD, TYPE_DECL, or TYPE with a full name and a resolved ID, i.e., after a
+    * driver has assigned it one with `setRefOrId`.
+    */
+  def indexNode(data: DetachedNodeData): Unit = if (isIndexed(data.label())) {
+    val fullName = data match {
+      case generic: DetachedNodeGeneric =>
+        generic.keyvalues.grouped(2).collectFirst { case Array(PropertyNames.FULL_NAME, v: String) => v }
+      case node: NewNode => node.properties.get(PropertyNames.FULL_NAME).collect { case v: String => v }
+      case _             => None
+    }
+    val id = data.getRefOrId match {
+      case n: Node           => Option(n.id())
+      case i: java.lang.Long => Option(i.longValue())
+      case _                 => None
+    }
+    for { name <- fullName; nodeId <- id } put(data.label(), name, nodeId)
+  }
+
+  /** Adds all entries of the given index to this one, replacing the IDs of full names indexed by both.
+    */
+  def putAll(other: SymbolIndex): Unit = INDEXED_LABELS.foreach { label =>
+    other.fullNames(label).foreach(fullName => other.get(label, fullName).foreach(put(label, fullName, _)))
+  }
+
+  def clear(): Unit = locked(resizeLock.writeLock()) {
+    dictionary.clear()
+    nextCode.set(0)
+    slots = Array.fill(INDEXED_LABELS.size)(emptySlots(INITIAL_CAPACITY))
+  }
+
+  /** Persists the index to the given path so that it may be re-loaded by a later, incremental run.
+    */
+  def save(path: Path): Unit = locked(resizeLock.readLock()) {
+    Using.resource(new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) { out =>
+      val n     = nextCode.get()
+      val names = new Array[String](n)
+      dictionary.forEach((name, code) => if (code.intValue() < n) names(code.intValue()) = name)
+      out.writeInt(MAGIC)
+      out.writeInt(n)
+      names.foreach { name =>
+        val bytes = Option(name).getOrElse("").getBytes(StandardCharsets.UTF_8)
+        out.writeInt(bytes.length)
+        out.write(bytes)
+      }
+      slots.foreach { arr =>
+        (0 until n).foreach(i => out.writeLong(if (i < arr.length()) arr.get(i) else ABSENT))
+      }
+    }
+  }
+
+  /** Replaces the contents of this index with those persisted at the given path.
+    */
+  def load(path: Path): Unit = locked(resizeLock.writeLock()) {
+    Using.resource(new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) { in =>
+      if (in.readInt() != MAGIC) throw new IOException(s"$path is not a serialized symbol index")
+      val n = in.readInt()
+      dictionary.clear()
+      (0 until n).foreach { code =>
+        val bytes = new Array[Byte](in.readInt())
+        in.readFully(bytes)
+        dictionary.put(new String(bytes, StandardCharsets.UTF_8), Integer.valueOf(code))
+      }
+      nextCode.set(n)
+      slots = Array.fill(INDEXED_LABELS.size) {
+        val arr = emptySlots(math.max(n, INITIAL_CAPACITY))
+        (0 until n).foreach(i => arr.set(i, in.readLong()))
+        arr
+      }
+    }
+  }
+
+  private def ensureCapacity(required: Int): Unit = if (slots.exists(_.length() < required)) {
+    locked(resizeLock.writeLock()) {
+      slots = slots.map { arr =>
+        if (arr.length() >= required) arr
+        else {
+          val grown = emptySlots(math.max(required, arr.length() * 2))
+          (0 until arr.length()).foreach(i => grown.set(i, arr.get(i)))
+          grown
+        }
+      }
+    }
+  }
+
+}
+
+object SymbolIndex {
+
+  /** The node labels whose full names are indexed.
+    */
+  val INDEXED_LABELS: IndexedSeq[String] = IndexedSeq(Method.Label, TypeDecl.Label, Type.Label)
+
+  private val ABSENT           = -1L
+  private val INITIAL_CAPACITY = 1024
+  private val MAGIC            = 0x504c5349 // "PLSI"
+
+  private def locked[T](lock: Lock)(f: => T): T = {
+    lock.lock()
+    try f
+    finally lock.unlock()
+  }
+
+  private def emptySlots(capacity: Int): AtomicLongArray = {
+    val arr = new AtomicLongArray(capacity)
+    (0 until capacity).foreach(arr.set(_, ABSENT))
+    arr
+  }
+
+}
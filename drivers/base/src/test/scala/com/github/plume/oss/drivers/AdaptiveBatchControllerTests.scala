@@ -0,0 +1,124 @@
+package com.github.plume.oss.drivers
+
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import java.util.concurrent.TimeoutException
+import scala.collection.mutable.ListBuffer
+
+class AdaptiveBatchControllerTests extends AnyWordSpec with Matchers {
+
+  // Batches of the controller's current size that each take a millisecond per change
+  private def stable(c: AdaptiveBatchController, n: Int = 1): Unit =
+    (1 to n).foreach(_ => c.record(c.batchSize, c.batchSize, c.batchSize * 1_000_000L, 0))
+
+  "an adaptive batch controller" should {
+
+    "grow the batch size while throughput holds up" in {
+      val metrics = new IngestionMetrics()
+      val c       = new AdaptiveBatchController(8, 1, 100, metrics)
+      stable(c)
+      c.batchSize shouldBe 10
+      stable(c)
+      c.batchSize shouldBe 12
+      metrics.countOf(IngestionMetrics.BATCH_GROWTHS) shouldBe 2
+    }
+
+    "shrink the batch size by a quarter when throughput drops" in {
+      val metrics = new IngestionMetrics()
+      val c       = new AdaptiveBatchController(8, 1, 100, metrics)
+      stable(c, 2)
+      c.batchSize shouldBe 12
+      // Half the throughput of the batches before
+      c.record(12, 12, 24_000_000L, 0)
+      c.batchSize shouldBe 9
+      metrics.countOf(IngestionMetrics.BATCH_SHRINKS) shouldBe 1
+    }
+
+    "halve the batch size when operations fail" in {
+      val metrics = new IngestionMetrics()
+      val c       = new AdaptiveBatchController(16, 1, 100, metrics)
+      c.record(16, 16, 16_000_000L, 3)
+      c.batchSize shouldBe 8
+      metrics.countOf(IngestionMetrics.BATCH_FAILURES) shouldBe 3
+    }
+
+    "not adapt to a partial batch that succeeded" in {
+      val c = new AdaptiveBatchController(16, 1, 100, new IngestionMetrics())
+      c.record(5, 16, 1L, 0)
+      c.batchSize shouldBe 16
+    }
+
+    "keep the batch size within its bounds" in {
+      val c = new AdaptiveBatchController(8, 4, 20, new IngestionMetrics())
+      stable(c, 20)
+      c.batchSize shouldBe 20
+      (1 to 10).foreach(_ => c.record(c.batchSize, c.batchSize, 1L, 1))
+      c.batchSize shouldBe 4
+    }
+
+    "keep a fixed batch size" in {
+      val c = AdaptiveBatchController.fixed(8, new IngestionMetrics())
+      stable(c, 5)
+      c.record(8, 8, 1L, 8)
+      c.batchSize shouldBe 8
+    }
+
+    "commit every change once, in order, in batches of the current size" in {
+      val metrics = new IngestionMetrics()
+      val c       = AdaptiveBatchController.fixed(4, metrics)
+      val batches = ListBuffer.empty[Seq[Int]]
+      c.foreachBatch((1 to 10).iterator) { (batch, retried) =>
+        retried shouldBe false
+        batches += batch
+        0
+      }
+      batches.toList shouldBe List(1 to 4, 5 to 8, 9 to 10)
+      metrics.countOf(IngestionMetrics.BATCHES) shouldBe 3
+      metrics.countOf(IngestionMetrics.BATCHED_CHANGES) shouldBe 10
+    }
+
+    "retry a batch that timed out in smaller batches" in {
+      val metrics   = new IngestionMetrics()
+      val c         = new AdaptiveBatchController(8, 1, 8, metrics)
+      val attempts  = ListBuffer.empty[(Seq[Int], Boolean)]
+      val committed = ListBuffer.empty[Int]
+      c.foreachBatch((1 to 10).iterator) { (batch, retried) =>
+        attempts += batch -> retried
+        if (attempts.size == 1) throw new RuntimeException(new TimeoutException("too large"))
+        committed ++= batch
+        0
+      }
+      committed.toList shouldBe (1 to 10).toList
+      attempts.toList.take(2) shouldBe List((1 to 8) -> false, (1 to 4) -> true)
+      metrics.countOf(IngestionMetrics.BATCH_RETRIES) shouldBe 1
+      metrics.countOf(IngestionMetrics.BATCH_SHRINKS) should be >= 1L
+    }
+
+    "give up on a batch that keeps timing out" in {
+      val c        = new AdaptiveBatchController(8, 1, 8, new IngestionMetrics())
+      var attempts = 0
+      assertThrows[TimeoutException] {
+        c.foreachBatch((1 to 10).iterator) { (_, _) =>
+          attempts += 1
+          throw new TimeoutException()
+        }
+      }
+      attempts shouldBe AdaptiveBatchController.MAX_RETRIES + 1
+    }
+
+    "not retry a batch that failed with a non-transient exception" in {
+      val c        = new AdaptiveBatchController(8, 1, 8, new IngestionMetrics())
+      var attempts = 0
+      assertThrows[IllegalStateException] {
+        c.foreachBatch((1 to 10).iterator) { (_, _) =>
+          attempts += 1
+          throw new IllegalStateException()
+        }
+      }
+      attempts shouldBe 1
+      c.batchSize shouldBe 4
+    }
+  }
+
+}
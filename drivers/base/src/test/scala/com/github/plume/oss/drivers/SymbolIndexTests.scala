@@ -0,0 +1,39 @@
+package com.github.plume.oss.drivers
+
+import io.shiftleft.codepropertygraph.generated.NodeTypes.*
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+class SymbolIndexTests extends AnyWordSpec with Matchers {
+
+  "a symbol index" should {
+
+    "merge the entries of another index" in {
+      val index = new SymbolIndex()
+      index.put(METHOD, "Foo.bar:void()", 1L)
+      val other = new SymbolIndex()
+      other.put(METHOD, "Foo.baz:int()", Long.MaxValue)
+      other.put(TYPE_DECL, "Foo", Long.MaxValue - 1)
+      index.putAll(other)
+      index.size shouldBe 3
+      index.method("Foo.bar:void()") shouldBe Some(1L)
+      index.method("Foo.baz:int()") shouldBe Some(Long.MaxValue)
+      index.typeDecl("Foo") shouldBe Some(Long.MaxValue - 1)
+      other.size shouldBe 2
+    }
+
+    "keep every entry written while it is being resized" in {
+      val index     = new SymbolIndex()
+      val threads   = 8
+      val perThread = 5000
+      (0 until threads).map { t =>
+        val worker = new Thread(() => (0 until perThread).foreach(i => index.put(METHOD, s"m$t.$i", t * perThread + i)))
+        worker.start()
+        worker
+      }.foreach(_.join())
+      index.size shouldBe threads * perThread
+      index.method("m3.4999") shouldBe Some(3L * perThread + 4999)
+    }
+  }
+
+}
@@ -1,6 +1,6 @@
 package com.github.plume.oss.testfixtures
 
-import com.github.plume.oss.drivers.IDriver
+import com.github.plume.oss.drivers.{BulkTxCheckpoint, FrontierTraversal, IDriver, IngestionMetrics, SymbolIndex}
 import io.shiftleft.codepropertygraph.generated.NodeTypes.*
 import io.shiftleft.codepropertygraph.generated.PropertyNames.*
 import io.shiftleft.codepropertygraph.generated.nodes.*
@@ -11,6 +11,8 @@ import org.scalatest.{BeforeAndAfter, BeforeAndAfterAll}
 import overflowdb.BatchedUpdate.DiffGraphBuilder
 import overflowdb.{BatchedUpdate, DetachedNodeGeneric}
 
+import java.io.File as JFile
+import scala.collection.mutable.ListBuffer
 import scala.jdk.CollectionConverters.IteratorHasAsScala
 import scala.language.postfixOps
 import scala.util.Try
@@ -23,6 +25,10 @@ class PlumeDriverFixture(val driver: IDriver)
 
   import PlumeDriverFixture.*
 
+  /** Whether ingestions into the driver's database can be checkpointed, i.e., whether it outlives the driver.
+    */
+  protected def supportsCheckpointing: Boolean = true
+
   override protected def beforeAll(): Unit = {
     if (!driver.isConnected) fail("The driver needs to be connected before the tests can be run.")
   }
@@ -108,6 +114,188 @@ class PlumeDriverFixture(val driver: IDriver)
         EdgeTypes.AST
       ) shouldBe false
     }
+
+    "should reflect changes committed in adaptively sized batches" in {
+      val diffGraph = Cpg.newDiffGraphBuilder
+      val blocks    = (1 to 100).map(i => NewBlock().order(i))
+      blocks.foreach(diffGraph.addNode)
+      blocks.zip(blocks.tail).foreach { case (a, b) => diffGraph.addEdge(a, b, EdgeTypes.AST) }
+      val batchedBefore = driver.metrics.countOf(IngestionMetrics.BATCHED_CHANGES)
+      driver.enableAdaptiveBatching(maxSize = 16)
+      try {
+        driver.bulkTx(diffGraph.build())
+        val ids = driver.propertyFromNodes(BLOCK, ORDER).map(b => b(ORDER).toString.toInt -> b("id").toString.toLong)
+        ids.map(_._1).sorted shouldBe (1 to 100)
+        val idOf  = ids.toMap
+        val chain = (1 until 100).map(i => idOf(i) -> Seq(idOf(i + 1))).toMap
+        driver.outNeighbours(idOf.values.toSeq, EdgeTypes.AST) shouldBe chain
+        assume(driver.batchSizes.nonEmpty, "The driver does not write in batches")
+        driver.metrics.countOf(IngestionMetrics.BATCHED_CHANGES) - batchedBefore shouldBe 199
+      } finally driver.disableAdaptiveBatching()
+    }
+  }
+
+  "the driver's symbol index" should {
+
+    "reflect committed METHOD, TYPE_DECL, and TYPE nodes" in {
+      val diffGraph = Cpg.newDiffGraphBuilder
+      diffGraph
+        .addNode(nodeToNodeCreate(m1))
+        .addNode(nodeToNodeCreate(td1))
+        .addNode(nodeToNodeCreate(t1))
+        .addNode(nodeToNodeCreate(b1))
+      driver.bulkTx(diffGraph)
+      val List(m: Map[String, Any]) = driver.propertyFromNodes(METHOD, FULL_NAME)
+      driver.methodFullNameToNode(m1.fullName) shouldBe Some(m.getOrElse("id", -1L).toString.toLong)
+      driver.symbolIndex.typeDecl(td1.fullName) shouldBe defined
+      driver.symbolIndex.typ(t1.fullName) shouldBe defined
+      driver.symbolIndex.method(td1.fullName) shouldBe None
+      driver.symbolIndex.size shouldBe 3
+    }
+
+    "survive being persisted and re-loaded" in {
+      val diffGraph = Cpg.newDiffGraphBuilder
+      diffGraph.addNode(nodeToNodeCreate(m1)).addNode(nodeToNodeCreate(m2))
+      driver.bulkTx(diffGraph)
+      val indexFile = JFile.createTempFile("plume-", ".symbols")
+      indexFile.deleteOnExit()
+      driver.symbolIndex.save(indexFile.toPath)
+      val reloaded = new SymbolIndex()
+      reloaded.load(indexFile.toPath)
+      reloaded.size shouldBe 2
+      reloaded.method(m1.fullName) shouldBe driver.methodFullNameToNode(m1.fullName)
+      reloaded.method(m2.fullName) shouldBe driver.methodFullNameToNode(m2.fullName)
+    }
+  }
+
+  "the driver's checkpointed bulk transactions" should {
+
+    "resume an interrupted transaction without duplicating its writes" in {
+      assume(supportsCheckpointing)
+      val log = JFile.createTempFile("plume", ".checkpoint")
+      log.delete()
+      def newDiff(): BatchedUpdate.DiffGraphBuilder = {
+        val m = NewMethod().name("foo").order(1)
+        val b = NewBlock().order(1)
+        new BatchedUpdate.DiffGraphBuilder().addNode(m).addNode(b).addEdge(m, b, EdgeTypes.AST)
+      }
+      // IDs known up front, so that the interrupted attempt can be recorded as starting from them
+      val first = 1_000_000L
+      driver.leaseIds(first, Long.MaxValue)
+      // An attempt that wrote all its changes, but was interrupted while writing its edge
+      driver.bulkTx(newDiff())
+      val interrupted = new BulkTxCheckpoint(log.toPath)
+      interrupted.validate("simple")
+      interrupted.begin(0, first)
+      interrupted.attempt(0, IngestionMetrics.BULK_TX_NODES, 2)
+      interrupted.progress(0, IngestionMetrics.BULK_TX_NODES, 2)
+      interrupted.attempt(0, IngestionMetrics.BULK_TX_EDGES, 1)
+      interrupted.close()
+      try {
+        val checkpoint = new BulkTxCheckpoint(log.toPath)
+        assertThrows[IllegalStateException](checkpoint.validate("other"))
+        checkpoint.validate("simple")
+        driver.resumeFrom(checkpoint)
+        driver.checkpointedBulkTx(0, newDiff())
+        checkpoint.isCommitted(0) shouldBe true
+        checkpoint.close()
+      } finally driver.endIngestion()
+      driver.propertyFromNodes(METHOD, NAME).size shouldBe 1
+      driver.propertyFromNodes(BLOCK, ORDER).size shouldBe 1
+      driver.outNeighbours(Seq(first), EdgeTypes.AST).values.flatten.toSeq shouldBe Seq(first + 1)
+
+      val reopened = new BulkTxCheckpoint(log.toPath)
+      reopened.isCommitted(0) shouldBe true
+      reopened.inFlight shouldBe None
+      reopened.watermark shouldBe first + 2
+      reopened.delete()
+    }
+
+    "skip every change of an interrupted batch that is larger than the batches it is replayed in" in {
+      assume(supportsCheckpointing)
+      val log = JFile.createTempFile("plume", ".checkpoint")
+      log.delete()
+      def newDiff(): BatchedUpdate.DiffGraphBuilder = {
+        val diff = new BatchedUpdate.DiffGraphBuilder()
+        (1 to 60).foreach(i => diff.addNode(NewBlock().order(i)))
+        diff
+      }
+      val first = 2_000_000L
+      driver.leaseIds(first, Long.MaxValue)
+      // An attempt with a grown, adaptive batch size that wrote all its nodes in one batch before it was interrupted
+      driver.bulkTx(newDiff())
+      val interrupted = new BulkTxCheckpoint(log.toPath)
+      interrupted.validate("blocks")
+      interrupted.begin(0, first)
+      interrupted.attempt(0, IngestionMetrics.BULK_TX_NODES, 60)
+      interrupted.close()
+      try {
+        val checkpoint = new BulkTxCheckpoint(log.toPath)
+        checkpoint.validate("blocks")
+        checkpoint.inFlight.map(_.attempted) shouldBe Some(Map(IngestionMetrics.BULK_TX_NODES -> 60))
+        driver.resumeFrom(checkpoint)
+        // Replayed in batches of the driver's fixed size, which is smaller
+        driver.checkpointedBulkTx(0, newDiff())
+        checkpoint.delete()
+      } finally driver.endIngestion()
+      driver.propertyFromNodes(BLOCK, ORDER).size shouldBe 60
+    }
+  }
+
+  "the driver's traversal API" should {
+
+    "fetch neighbours and properties in batches" in {
+      val diffGraph = Cpg.newDiffGraphBuilder
+      val method    = nodeToNodeCreate(m1)
+      val block     = nodeToNodeCreate(b1)
+      val call      = nodeToNodeCreate(c1)
+      diffGraph
+        .addNode(method)
+        .addNode(block)
+        .addNode(call)
+        .addEdge(method, block, EdgeTypes.AST)
+        .addEdge(block, call, EdgeTypes.AST)
+      driver.bulkTx(diffGraph)
+      val List(m: Map[String, Any]) = driver.propertyFromNodes(METHOD, NAME)
+      val List(b: Map[String, Any]) = driver.propertyFromNodes(BLOCK, ORDER)
+      val List(c: Map[String, Any]) = driver.propertyFromNodes(CALL, NAME)
+      val Seq(mId, bId, cId)        = Seq(m, b, c).map(_("id").toString.toLong)
+
+      driver.outNeighbours(Seq(mId, bId, cId), EdgeTypes.AST) shouldBe Map(mId -> Seq(bId), bId -> Seq(cId))
+      driver.inNeighbours(Seq(mId, bId, cId), EdgeTypes.AST) shouldBe Map(bId -> Seq(mId), cId -> Seq(bId))
+      driver.outNeighbours(Seq(mId), EdgeTypes.CFG) shouldBe Map.empty
+
+      val props = driver.propertiesFromIds(Seq(mId, cId, Int.MaxValue.toLong), NAME, ORDER)
+      props.keySet shouldBe Set(mId, cId)
+      props(mId).get(NAME) shouldBe Some(m1.name)
+      props(cId).get(NAME) shouldBe Some(c1.name)
+      props(cId).get(ORDER) shouldBe Some(c1.order)
+    }
+
+    "expand whole frontiers of a traversal at once" in {
+      val diffGraph = Cpg.newDiffGraphBuilder
+      val method    = nodeToNodeCreate(m1)
+      val block     = nodeToNodeCreate(b1)
+      val call1     = nodeToNodeCreate(c1)
+      val call2     = nodeToNodeCreate(c2)
+      diffGraph
+        .addNode(method)
+        .addNode(block)
+        .addNode(call1)
+        .addNode(call2)
+        .addEdge(method, block, EdgeTypes.AST)
+        .addEdge(block, call1, EdgeTypes.AST)
+        .addEdge(block, call2, EdgeTypes.AST)
+      driver.bulkTx(diffGraph)
+      val List(m: Map[String, Any]) = driver.propertyFromNodes(METHOD, NAME)
+      val calls                     = driver.propertyFromNodes(CALL, NAME).map(_("id").toString.toLong)
+      val frontiers                 = ListBuffer.empty[Seq[Long]]
+      val mId                       = m("id").toString.toLong
+
+      FrontierTraversal.out(driver, Seq(mId), EdgeTypes.AST)(frontiers.append(_)) shouldBe 4
+      frontiers.map(_.size) shouldBe Seq(1, 1, 2)
+      FrontierTraversal.in(driver, calls, EdgeTypes.AST)() shouldBe 4
+    }
   }
 
   override def afterAll(): Unit = {
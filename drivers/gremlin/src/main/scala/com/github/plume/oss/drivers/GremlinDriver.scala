@@ -12,7 +12,7 @@ import overflowdb.BatchedUpdate.{Change, DiffOrBuilder}
 import overflowdb.{BatchedUpdate, DetachedNodeData}
 
 import java.util.concurrent.atomic.AtomicBoolean
-import scala.jdk.CollectionConverters.{IteratorHasAsScala, MapHasAsScala}
+import scala.jdk.CollectionConverters.{IteratorHasAsScala, ListHasAsScala, MapHasAsScala}
 import scala.util.{Failure, Success, Try}
 
 /** The driver used by databases implementing Gremlin.
@@ -51,7 +51,10 @@ abstract class GremlinDriver(txMax: Int = 50) extends IDriver {
     }
   }
 
-  override def clear(): Unit = g().V().drop().iterate()
+  override def clear(): Unit = {
+    g().V().drop().iterate()
+    symbolIndex.clear()
+  }
 
   override def exists(nodeId: Long): Boolean = g().V(typedNodeId(nodeId)).hasNext
 
@@ -59,22 +62,27 @@ abstract class GremlinDriver(txMax: Int = 50) extends IDriver {
     g().V(typedNodeId(srcId)).out(edge).asScala.filter(v => v.id() == typedNodeId(dstId)).hasNext
 
   override def bulkTx(dg: DiffOrBuilder): Int = {
-    // Do node operations first in groups operations
-    dg.iterator()
-      .asScala
-      .collect {
+    // Do node operations first in groups operations, property updates are bundled in with node creation
+    metrics.time(IngestionMetrics.BULK_TX_NODES) {
+      val changes = dg.iterator().asScala.collect {
         case x: DetachedNodeData              => x
         case x: BatchedUpdate.SetNodeProperty => x
       }
-      .grouped(txMax)
-      .foreach(bulkNodeTx(g(), _))
+      commitBatches(IngestionMetrics.BULK_TX_NODES, txMax, changes) { ops =>
+        bulkNodeTx(g(), ops)
+        0 // Failed traversals are thrown
+      }
+    }
     // Now that all nodes are in, do edges
-    dg.iterator()
-      .asScala
-      .collect { case x: BatchedUpdate.CreateEdge => x }
-      .grouped(txMax)
-      .foreach(bulkEdgeTx(g(), _))
+    metrics.time(IngestionMetrics.BULK_TX_EDGES) {
+      val changes = dg.iterator().asScala.collect { case x: BatchedUpdate.CreateEdge => x }
+      commitBatches(IngestionMetrics.BULK_TX_EDGES, txMax, changes) { ops =>
+        bulkEdgeTx(g(), ops)
+        0 // Failed traversals are thrown
+      }
+    }
 
+    indexSymbols(dg)
     dg.size()
   }
 
@@ -153,6 +161,48 @@ abstract class GremlinDriver(txMax: Int = 50) extends IDriver {
       .toList
   }
 
+  override def outNeighbours(nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]] =
+    neighbours(nodeIds, __.out(edge))
+
+  override def inNeighbours(nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]] =
+    neighbours(nodeIds, __.in(edge))
+
+  private def neighbours(nodeIds: Seq[Long], step: GraphTraversal[Vertex, Vertex]): Map[Long, Seq[Long]] =
+    if (nodeIds.isEmpty) Map.empty
+    else
+      g()
+        .V(nodeIds.map(typedNodeId(_).asInstanceOf[AnyRef])*)
+        .project[Any]("src", "dst")
+        .by(T.id)
+        .by(step.id().fold())
+        .asScala
+        .map { m =>
+          val dst = m.get("dst").asInstanceOf[java.util.List[?]].asScala.map(_.toString.toLong).toSeq
+          m.get("src").toString.toLong -> dst
+        }
+        .filter { case (_, ns) => ns.nonEmpty }
+        .toMap
+
+  override def propertiesFromIds(nodeIds: Seq[Long], keys: String*): Map[Long, Map[String, Any]] =
+    if (nodeIds.isEmpty) Map.empty
+    else {
+      var ptr = g()
+        .V(nodeIds.map(typedNodeId(_).asInstanceOf[AnyRef])*)
+        .project[Any](T.id.toString, keys*)
+        .by(T.id)
+      keys.foreach(k => ptr = ptr.by(coalesce(values(k), constant("NULL"))))
+      ptr.asScala.map { m =>
+        val properties = m.asScala.toMap
+        val props = keys.map { k =>
+          properties.get(k) match {
+            case Some("NULL") | None => k -> SchemaBuilder.getPropertyDefault(k)
+            case Some(v)             => k -> v
+          }
+        }.toMap
+        properties(T.id.toString).toString.toLong -> deserializeLists(props)
+      }.toMap
+    }
+
   @inline
   protected def typedNodeId(nodeId: Long): Any =
     nodeId
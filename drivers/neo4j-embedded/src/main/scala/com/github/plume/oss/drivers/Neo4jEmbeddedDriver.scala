@@ -6,12 +6,14 @@ import com.github.plume.oss.util.BatchedUpdateUtil.*
 import io.shiftleft.codepropertygraph.generated.nodes.StoredNode
 import org.neo4j.configuration.GraphDatabaseSettings.DEFAULT_DATABASE_NAME
 import org.neo4j.dbms.api.{DatabaseManagementService, DatabaseManagementServiceBuilder}
-import org.neo4j.graphdb.{GraphDatabaseService, Label, Transaction}
+import org.neo4j.graphdb.schema.Schema
+import org.neo4j.graphdb.{GraphDatabaseService, Label, Node, Transaction}
 import org.slf4j.LoggerFactory
 import overflowdb.BatchedUpdate.{CreateEdge, DiffOrBuilder, SetNodeProperty}
 import overflowdb.{BatchedUpdate, DetachedNodeData}
 
 import java.util
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import scala.compiletime.uninitialized
 import scala.jdk.CollectionConverters
@@ -32,6 +34,7 @@ final class Neo4jEmbeddedDriver(
   private val connected                                    = new AtomicBoolean(false)
   private var managementService: DatabaseManagementService = uninitialized
   private var graphDb: GraphDatabaseService                = uninitialized
+  private val readTx                                       = new ThreadLocal[Transaction]()
   connect()
 
   /** @return
@@ -58,6 +61,7 @@ final class Neo4jEmbeddedDriver(
   override def isConnected: Boolean = connected.get()
 
   override def clear(): Unit = {
+    symbolIndex.clear()
     close()
     databaseDir.delete(swallowIOExceptions = true)
     connect()
@@ -106,6 +110,52 @@ final class Neo4jEmbeddedDriver(
       edgeExists == "true"
     }
 
+  /** Checks the nodes of each label, and the edges between each pair of labels, with a single query each that looks
+    * their endpoints up by the `id` range index of their label.
+    */
+  override protected def written(changes: Seq[BatchedUpdate.Change]): Seq[Boolean] = {
+    val nodes = changes.collect { case n: DetachedNodeData => n.label -> n.pID }.groupMap(_._1)(_._2)
+    val edges = changes.collect { case e: CreateEdge =>
+      (labelFromNodeData(e.src), labelFromNodeData(e.dst), e.label) -> (e.src.pID, e.dst.pID)
+    }.groupMap(_._1)(_._2)
+    val (writtenNodes, writtenEdges) = read { tx =>
+      val nodeIds = nodes.flatMap { case (label, ids) =>
+        tx
+          .execute(
+            s"MATCH (n:$label) WHERE n.id IN $$nodeIds RETURN n.id AS id",
+            new util.HashMap[String, Object](1) {
+              put("nodeIds", ids.map(Long.box).asJava)
+            }
+          )
+          .asScala
+          .map(_.get("id").asInstanceOf[Long])
+          .toSeq
+      }.toSet
+      val edgeIds = edges.flatMap { case ((srcLabel, dstLabel, edge), pairs) =>
+        tx
+          .execute(
+            s"""
+               |UNWIND $$pairs AS pair
+               |MATCH (src:$srcLabel {id: pair[0]})-[:$edge]->(dst:$dstLabel {id: pair[1]})
+               |RETURN DISTINCT src.id AS src, dst.id AS dst
+               |""".stripMargin,
+            new util.HashMap[String, Object](1) {
+              put("pairs", pairs.map { case (src, dst) => Seq(Long.box(src), Long.box(dst)).asJava }.asJava)
+            }
+          )
+          .asScala
+          .map(row => (edge, row.get("src").asInstanceOf[Long], row.get("dst").asInstanceOf[Long]))
+          .toSeq
+      }.toSet
+      nodeIds -> edgeIds
+    }
+    changes.map {
+      case n: DetachedNodeData => writtenNodes.contains(n.pID)
+      case e: CreateEdge       => writtenEdges.contains((e.label, e.src.pID, e.dst.pID))
+      case _                   => false
+    }
+  }
+
   private def nodePayload(n: DetachedNodeData): (util.Map[String, Object], String) = {
     val pMap = propertiesFromNodeData(n).map { case (k, v) =>
       k -> (v match {
@@ -125,28 +175,32 @@ final class Neo4jEmbeddedDriver(
     (jpMap, pString)
   }
 
-  private def bulkCreateNode(ops: Seq[DetachedNodeData]): Unit =
+  private def bulkCreateNode(ops: Seq[DetachedNodeData]): Int =
     Using.resource(graphDb.beginTx) { tx =>
-      ops
+      val failures = ops
         .map { change =>
           val nodeId = change.pID
           change.setRefOrId(nodeId)
           val (params, pString) = nodePayload(change)
           params -> s"MERGE (n:${change.label} {$pString})"
         }
-        .foreach { case (params: util.Map[String, Object], query: String) =>
+        .count { case (params: util.Map[String, Object], query: String) =>
           Try(tx.execute(query, params)) match {
             case Failure(e) =>
               logger.error(s"Unable to write bulk create node transaction $query", e)
-            case Success(x) => x.close()
+              true
+            case Success(x) =>
+              x.close()
+              false
           }
         }
       tx.commit()
+      failures
     }
 
-  private def bulkNodeSetProperty(ops: Seq[BatchedUpdate.SetNodeProperty]): Unit =
+  private def bulkNodeSetProperty(ops: Seq[BatchedUpdate.SetNodeProperty]): Int =
     Using.resource(graphDb.beginTx) { tx =>
-      ops
+      val failures = ops
         .collect { case c: BatchedUpdate.SetNodeProperty =>
           (c.label, c.value, c.node)
         }
@@ -170,19 +224,23 @@ final class Neo4jEmbeddedDriver(
                  |""".stripMargin
           )
         }
-        .foreach { case (params: util.Map[String, Object], query: String) =>
+        .count { case (params: util.Map[String, Object], query: String) =>
           Try(tx.execute(query, params)) match {
             case Failure(e) =>
               logger.error(s"Unable to write bulk set node property transaction $query", e)
-            case Success(x) => x.close()
+              true
+            case Success(x) =>
+              x.close()
+              false
           }
         }
       tx.commit()
+      failures
     }
 
-  private def bulkCreateEdge(ops: Seq[BatchedUpdate.CreateEdge]): Unit =
+  private def bulkCreateEdge(ops: Seq[BatchedUpdate.CreateEdge]): Int =
     Using.resource(graphDb.beginTx) { tx =>
-      ops.foreach { c =>
+      val failures = ops.count { c =>
         val srcLabel = labelFromNodeData(c.src)
         val dstLabel = labelFromNodeData(c.dst)
         val query = s"""
@@ -200,28 +258,33 @@ final class Neo4jEmbeddedDriver(
         ) match {
           case Failure(e) =>
             logger.error(s"Unable to write bulk create edge transaction $query", e)
-          case Success(x) => x.close()
+            true
+          case Success(x) =>
+            x.close()
+            false
         }
       }
       tx.commit()
+      failures
     }
 
   override def bulkTx(dg: DiffOrBuilder): Int = {
     // Node operations
-    dg.iterator.asScala
-      .collect { case x: DetachedNodeData => x }
-      .grouped(txMax)
-      .foreach(bulkCreateNode)
-    dg.iterator.asScala
-      .collect { case x: BatchedUpdate.SetNodeProperty => x }
-      .grouped(txMax)
-      .foreach(bulkNodeSetProperty)
+    metrics.time(IngestionMetrics.BULK_TX_NODES) {
+      val changes = dg.iterator.asScala.collect { case x: DetachedNodeData => x }
+      commitBatches(IngestionMetrics.BULK_TX_NODES, txMax, changes)(bulkCreateNode)
+    }
+    metrics.time(IngestionMetrics.BULK_TX_PROPERTIES) {
+      val changes = dg.iterator.asScala.collect { case x: BatchedUpdate.SetNodeProperty => x }
+      commitBatches(IngestionMetrics.BULK_TX_PROPERTIES, txMax, changes)(bulkNodeSetProperty)
+    }
     // Edge operations
-    dg.iterator.asScala
-      .collect { case x: BatchedUpdate.CreateEdge => x }
-      .grouped(txMax)
-      .foreach(bulkCreateEdge)
+    metrics.time(IngestionMetrics.BULK_TX_EDGES) {
+      val changes = dg.iterator.asScala.collect { case x: BatchedUpdate.CreateEdge => x }
+      commitBatches(IngestionMetrics.BULK_TX_EDGES, txMax, changes)(bulkCreateEdge)
+    }
 
+    indexSymbols(dg)
     dg.size()
   }
 
@@ -249,6 +312,76 @@ final class Neo4jEmbeddedDriver(
         .toList
     }
 
+  override def propertiesFromIds(nodeIds: Seq[Long], keys: String*): Map[Long, Map[String, Any]] =
+    read { tx =>
+      tx
+        .execute(
+          s"""
+             |$MATCH_NODES_BY_ID
+             |RETURN n AS node
+             |""".stripMargin,
+          new util.HashMap[String, Object](1) {
+            put("nodeIds", nodeIds.map(Long.box).asJava)
+          }
+        )
+        .asScala
+        .map { row =>
+          val node = row.get("node").asInstanceOf[Node]
+          node.getProperty("id").asInstanceOf[Long] -> keys.map { k =>
+            k -> Try(node.getProperty(k)).getOrElse(SchemaBuilder.getPropertyDefault(k))
+          }.toMap
+        }
+        .toMap
+    }
+
+  override def outNeighbours(nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]] =
+    neighbours(nodeIds, s"(n)-[:$edge]->(m)")
+
+  override def inNeighbours(nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]] =
+    neighbours(nodeIds, s"(n)<-[:$edge]-(m)")
+
+  private def neighbours(nodeIds: Seq[Long], pattern: String): Map[Long, Seq[Long]] =
+    read { tx =>
+      tx
+        .execute(
+          s"""
+             |$MATCH_NODES_BY_ID
+             |MATCH $pattern
+             |RETURN n.id AS src, collect(m.id) AS dst
+             |""".stripMargin,
+          new util.HashMap[String, Object](1) {
+            put("nodeIds", nodeIds.map(Long.box).asJava)
+          }
+        )
+        .asScala
+        .map { row =>
+          val dst = row.get("dst").asInstanceOf[util.List[?]].asScala.map(_.toString.toLong).toSeq
+          row.get("src").asInstanceOf[Long] -> dst
+        }
+        .toMap
+    }
+
+  override def withReadSession[T](f: IDriver => T): T = Option(readTx.get()) match {
+    case Some(_) => f(this)
+    case None =>
+      Using.resource(graphDb.beginTx) { tx =>
+        readTx.set(tx)
+        try {
+          f(this)
+        } finally {
+          readTx.remove()
+        }
+      }
+  }
+
+  /** Runs the given read query in the read session of the calling thread if there is one, or in a transaction of its
+    * own otherwise.
+    */
+  private def read[T](f: Transaction => T): T = Option(readTx.get()) match {
+    case Some(tx) => f(tx)
+    case None     => Using.resource(graphDb.beginTx)(f)
+  }
+
   override def buildSchema(): Unit = {
     Using.resource(graphDb.beginTx) { tx =>
       val payload = buildSchemaPayload()
@@ -261,14 +394,41 @@ final class Neo4jEmbeddedDriver(
     }
   }
 
-  override def buildSchemaPayload(): String = {
-    val btreeAndConstraints = NODES_IN_SCHEMA
-      .map(l => s"""
-                   |CREATE BTREE INDEX ${l.toLowerCase}_id_btree_index IF NOT EXISTS FOR (n:$l) ON (n.id)
-                   |""".stripMargin.trim)
-      .mkString("\n")
-    s"""CREATE LOOKUP INDEX node_label_lookup_index IF NOT EXISTS FOR (n) ON EACH labels(n)
-       |$btreeAndConstraints""".stripMargin
+  override def buildSchemaPayload(): String =
+    s"""$LABEL_LOOKUP_INDEX_PAYLOAD
+       |$idIndexPayload""".stripMargin
+
+  private def idIndexPayload: String = NODES_IN_SCHEMA
+    .map(l => s"""
+                 |CREATE RANGE INDEX ${l.toLowerCase}_id_btree_index IF NOT EXISTS FOR (n:$l) ON (n.id)
+                 |""".stripMargin.trim)
+    .mkString("\n")
+
+  /** Drops the label lookup index for the duration of the load. The `id` indexes are created if missing and kept, as
+    * edges are written by matching their endpoints on `id`.
+    */
+  override def beginBulkLoad(): Unit = {
+    Using.resource(graphDb.beginTx) { tx =>
+      tx.execute(s"DROP INDEX $LABEL_LOOKUP_INDEX IF EXISTS").close()
+      idIndexPayload.lines().forEach(line => tx.execute(line).close())
+      tx.commit()
+    }
+    Using.resource(graphDb.beginTx) { tx =>
+      tx.schema().awaitIndexesOnline(INDEX_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+    }
+  }
+
+  override def endBulkLoad(): Unit = {
+    Using.resource(graphDb.beginTx) { tx =>
+      tx.execute(LABEL_LOOKUP_INDEX_PAYLOAD).close()
+      tx.commit()
+    }
+    logger.info(s"Re-created $LABEL_LOOKUP_INDEX, which will be populated in the background")
+  }
+
+  override def indexesOnline: Boolean = Using.resource(graphDb.beginTx) { tx =>
+    val schema = tx.schema()
+    schema.getIndexes.asScala.forall(schema.getIndexState(_) == Schema.IndexState.ONLINE)
   }
 }
 
@@ -281,4 +441,22 @@ object Neo4jEmbeddedDriver {
   /** Default maximum number of transactions to bundle in a single transaction
     */
   private val DEFAULT_TX_MAX = 25
+
+  /** The index over all node labels, which is deferred during bulk loads.
+    */
+  private val LABEL_LOOKUP_INDEX = "node_label_lookup_index"
+
+  private val LABEL_LOOKUP_INDEX_PAYLOAD =
+    s"CREATE LOOKUP INDEX $LABEL_LOOKUP_INDEX IF NOT EXISTS FOR (n) ON EACH labels(n)"
+
+  /** How long to wait for indexes to come online before a bulk load begins.
+    */
+  private val INDEX_TIMEOUT_SECONDS = 300
+
+  /** Binds `n` to the nodes whose `id` is in `$nodeIds`. The `id` indexes are per label, so an unlabelled match would
+    * scan all nodes. Instead, the IDs are looked up under each label of the schema.
+    */
+  private val MATCH_NODES_BY_ID = SchemaBuilder.NodeToProperties.keys.toSeq.sorted
+    .map(l => s"MATCH (n:$l) WHERE n.id IN $$nodeIds RETURN n")
+    .mkString("CALL {\n", "\nUNION ALL\n", "\n}")
 }
@@ -4,7 +4,7 @@ import com.github.plume.oss.drivers.Neo4jDriver.*
 import com.github.plume.oss.util.BatchedUpdateUtil.*
 import io.shiftleft.codepropertygraph.generated.nodes.StoredNode
 import org.neo4j.driver.types.TypeSystem
-import org.neo4j.driver.{AuthTokens, GraphDatabase, Transaction}
+import org.neo4j.driver.{AccessMode, AuthTokens, GraphDatabase, QueryRunner, Record, SessionConfig, Transaction}
 import org.slf4j.LoggerFactory
 import overflowdb.BatchedUpdate.{CreateEdge, DiffOrBuilder, SetNodeProperty}
 import overflowdb.{BatchedUpdate, DetachedNodeData}
@@ -12,7 +12,13 @@ import overflowdb.{BatchedUpdate, DetachedNodeData}
 import java.util
 import java.util.concurrent.atomic.AtomicBoolean
 import scala.jdk.CollectionConverters
-import scala.jdk.CollectionConverters.{CollectionHasAsScala, IteratorHasAsScala}
+import scala.jdk.CollectionConverters.{
+  CollectionHasAsScala,
+  IteratorHasAsScala,
+  ListHasAsScala,
+  MapHasAsScala,
+  SeqHasAsJava
+}
 import scala.util.{Failure, Success, Try, Using}
 
 /** The driver used to connect to a remote Neo4j instance. Once can optionally call buildSchema to add indexes for
@@ -31,10 +37,12 @@ final class Neo4jDriver(
   private val connected  = new AtomicBoolean(true)
   private val driver     = GraphDatabase.driver(s"bolt://$hostname:$port", AuthTokens.basic(username, password))
   private val typeSystem = TypeSystem.getDefault
+  private val readTx     = new ThreadLocal[QueryRunner]()
 
   override def isConnected: Boolean = connected.get()
 
   override def clear(): Unit = Using.resource(driver.session()) { session =>
+    symbolIndex.clear()
     session.executeWrite { tx =>
       tx.run("""
           |MATCH (n)
@@ -89,6 +97,52 @@ final class Neo4jDriver(
       }
     }
 
+  /** Checks the nodes of each label, and the edges between each pair of labels, with a single query each that looks
+    * their endpoints up by the `id` range index of their label.
+    */
+  override protected def written(changes: Seq[BatchedUpdate.Change]): Seq[Boolean] = {
+    val nodes = changes.collect { case n: DetachedNodeData => n.label -> n.pID }.groupMap(_._1)(_._2)
+    val edges = changes.collect { case e: CreateEdge =>
+      (labelFromNodeData(e.src), labelFromNodeData(e.dst), e.label) -> (e.src.pID, e.dst.pID)
+    }.groupMap(_._1)(_._2)
+    val (writtenNodes, writtenEdges) = read { tx =>
+      val nodeIds = nodes.flatMap { case (label, ids) =>
+        tx
+          .run(
+            s"MATCH (n:$label) WHERE n.id IN $$nodeIds RETURN n.id AS id",
+            new util.HashMap[String, Object](1) {
+              put("nodeIds", ids.map(Long.box).asJava)
+            }
+          )
+          .list()
+          .asScala
+          .map(_.get("id").asLong())
+      }.toSet
+      val edgeIds = edges.flatMap { case ((srcLabel, dstLabel, edge), pairs) =>
+        tx
+          .run(
+            s"""
+               |UNWIND $$pairs AS pair
+               |MATCH (src:$srcLabel {id: pair[0]})-[:$edge]->(dst:$dstLabel {id: pair[1]})
+               |RETURN DISTINCT src.id AS src, dst.id AS dst
+               |""".stripMargin,
+            new util.HashMap[String, Object](1) {
+              put("pairs", pairs.map { case (src, dst) => Seq(Long.box(src), Long.box(dst)).asJava }.asJava)
+            }
+          )
+          .list()
+          .asScala
+          .map(record => (edge, record.get("src").asLong(), record.get("dst").asLong()))
+      }.toSet
+      nodeIds -> edgeIds
+    }
+    changes.map {
+      case n: DetachedNodeData => writtenNodes.contains(n.pID)
+      case e: CreateEdge       => writtenEdges.contains((e.label, e.src.pID, e.dst.pID))
+      case _                   => false
+    }
+  }
+
   private def nodePayload(n: DetachedNodeData): (util.Map[String, Object], String) = {
     val pMap = propertiesFromNodeData(n).map { case (k, v) =>
       k -> (v match {
@@ -108,31 +162,34 @@ final class Neo4jDriver(
     (jpMap, pString)
   }
 
-  private def bulkCreateNode(ops: Seq[DetachedNodeData]): Unit =
+  private def bulkCreateNode(ops: Seq[DetachedNodeData]): Int =
     Using.resource(driver.session()) { session =>
       Using.resource(session.beginTransaction()) { tx =>
-        ops
+        val failures = ops
           .map { change =>
             val nodeId = change.pID
             change.setRefOrId(nodeId)
             val (params, pString) = nodePayload(change)
             params -> s"MERGE (n:${change.label} {$pString})"
           }
-          .foreach { case (params: util.Map[String, Object], query: String) =>
+          .count { case (params: util.Map[String, Object], query: String) =>
+            metrics.increment(IngestionMetrics.BYTES_SENT, payloadSize(query, params))
             Try(tx.run(query, params)) match {
               case Failure(e) =>
                 logger.error(s"Unable to write bulk create node transaction $query", e)
-              case Success(_) =>
+                true
+              case Success(_) => false
             }
           }
         tx.commit()
+        failures
       }
     }
 
-  private def bulkNodeSetProperty(ops: Seq[BatchedUpdate.SetNodeProperty]): Unit =
+  private def bulkNodeSetProperty(ops: Seq[BatchedUpdate.SetNodeProperty]): Int =
     Using.resource(driver.session()) { session =>
       Using.resource(session.beginTransaction()) { tx =>
-        ops
+        val failures = ops
           .collect { case c: BatchedUpdate.SetNodeProperty =>
             (c.label, c.value, c.node)
           }
@@ -156,61 +213,83 @@ final class Neo4jDriver(
                |""".stripMargin
             )
           }
-          .foreach { case (params: util.Map[String, Object], query: String) =>
+          .count { case (params: util.Map[String, Object], query: String) =>
+            metrics.increment(IngestionMetrics.BYTES_SENT, payloadSize(query, params))
             Try(tx.run(query, params)) match {
               case Failure(e) =>
                 logger.error(s"Unable to write bulk set node property transaction $query", e)
-              case Success(_) =>
+                true
+              case Success(_) => false
             }
           }
         tx.commit()
+        failures
       }
     }
 
-  private def bulkCreateEdge(ops: Seq[BatchedUpdate.CreateEdge]): Unit =
+  private def bulkCreateEdge(ops: Seq[BatchedUpdate.CreateEdge]): Int =
     Using.resource(driver.session()) { session =>
       Using.resource(session.beginTransaction()) { tx =>
-        ops.foreach { c =>
+        val failures = ops.count { c =>
           val srcLabel = labelFromNodeData(c.src)
           val dstLabel = labelFromNodeData(c.dst)
           val query = s"""
                          |MATCH (src:$srcLabel {id: $$srcId}), (dst:$dstLabel {id: $$dstId})
                          |CREATE (src)-[:${c.label}]->(dst)
                          |""".stripMargin
-          Try(
-            tx.run(
-              query,
-              new util.HashMap[String, Object](2) {
-                put("srcId", idFromNodeData(c.src).asInstanceOf[Object])
-                put("dstId", idFromNodeData(c.dst).asInstanceOf[Object])
-              }
-            )
-          ) match {
+          val params = new util.HashMap[String, Object](2) {
+            put("srcId", idFromNodeData(c.src).asInstanceOf[Object])
+            put("dstId", idFromNodeData(c.dst).asInstanceOf[Object])
+          }
+          metrics.increment(IngestionMetrics.BYTES_SENT, payloadSize(query, params))
+          Try(tx.run(query, params)) match {
             case Failure(e) =>
               logger.error(s"Unable to write bulk create edge transaction $query", e)
-            case Success(_) =>
+              true
+            case Success(_) => false
           }
         }
         tx.commit()
+        failures
       }
     }
 
+  /** Approximates the size of the given query and its parameters as sent to the server, counting a byte per character
+    * of strings and a fixed size for other values. Encoding the strings would be exact for non-ASCII characters, but is
+    * too costly to repeat for every query.
+    */
+  private def payloadSize(query: String, params: util.Map[String, Object]): Long = {
+    def valueSize(v: Any): Long = v match {
+      case x: String            => x.length + 2
+      case xs: util.List[?]     =>
+        var size = 2L
+        xs.forEach(x => size += valueSize(x))
+        size
+      case _: java.lang.Boolean => 1
+      case _                    => 9
+    }
+    var size = query.length.toLong
+    params.forEach((k, v) => size += valueSize(k) + valueSize(v))
+    size
+  }
+
   override def bulkTx(dg: DiffOrBuilder): Int = {
     // Node operations
-    dg.iterator.asScala
-      .collect { case x: DetachedNodeData => x }
-      .grouped(txMax)
-      .foreach(bulkCreateNode)
-    dg.iterator.asScala
-      .collect { case x: BatchedUpdate.SetNodeProperty => x }
-      .grouped(txMax)
-      .foreach(bulkNodeSetProperty)
+    metrics.time(IngestionMetrics.BULK_TX_NODES) {
+      val changes = dg.iterator.asScala.collect { case x: DetachedNodeData => x }
+      commitBatches(IngestionMetrics.BULK_TX_NODES, txMax, changes)(bulkCreateNode)
+    }
+    metrics.time(IngestionMetrics.BULK_TX_PROPERTIES) {
+      val changes = dg.iterator.asScala.collect { case x: BatchedUpdate.SetNodeProperty => x }
+      commitBatches(IngestionMetrics.BULK_TX_PROPERTIES, txMax, changes)(bulkNodeSetProperty)
+    }
     // Edge operations
-    dg.iterator.asScala
-      .collect { case x: BatchedUpdate.CreateEdge => x }
-      .grouped(txMax)
-      .foreach(bulkCreateEdge)
+    metrics.time(IngestionMetrics.BULK_TX_EDGES) {
+      val changes = dg.iterator.asScala.collect { case x: BatchedUpdate.CreateEdge => x }
+      commitBatches(IngestionMetrics.BULK_TX_EDGES, txMax, changes)(bulkCreateEdge)
+    }
 
+    indexSymbols(dg)
     dg.size()
   }
 
@@ -236,30 +315,106 @@ final class Neo4jDriver(
                   |""".stripMargin)
           .list()
           .asScala
-          .map(record =>
-            (keys :+ "id").flatMap { k =>
-              val v = record.get(k)
-              if (v.hasType(typeSystem.NULL())) {
-                Some(k -> SchemaBuilder.getPropertyDefault(k))
-              } else if (k == "id") {
-                Some(k -> v.asLong(SchemaBuilder.LONG_DEFAULT))
-              } else if (v.hasType(typeSystem.INTEGER())) {
-                Some(k -> v.asInt(SchemaBuilder.INT_DEFAULT))
-              } else if (v.hasType(typeSystem.BOOLEAN())) {
-                Some(k -> v.asBoolean(SchemaBuilder.BOOL_DEFAULT))
-              } else if (v.hasType(typeSystem.STRING())) {
-                Some(k -> v.asString(SchemaBuilder.STRING_DEFAULT))
-              } else if (v.hasType(typeSystem.LIST())) {
-                Some(k -> v.asList())
-              } else {
-                None
-              }
-            }.toMap
-          )
+          .map(recordToProperties(_, keys))
           .toList
       }
     }
 
+  override def propertiesFromIds(nodeIds: Seq[Long], keys: String*): Map[Long, Map[String, Any]] =
+    read { tx =>
+      tx
+        .run(
+          s"""
+             |$MATCH_NODES_BY_ID
+             |RETURN ${(keys.map(f => s"n.$f as $f") :+ "n.id as id").mkString(",")}
+             |""".stripMargin,
+          new util.HashMap[String, Object](1) {
+            put("nodeIds", nodeIds.map(Long.box).asJava)
+          }
+        )
+        .list()
+        .asScala
+        .map { record =>
+          val properties = recordToProperties(record, keys)
+          properties("id").asInstanceOf[Long] -> (properties - "id")
+        }
+        .toMap
+    }
+
+  private def recordToProperties(record: Record, keys: Seq[String]): Map[String, Any] =
+    (keys :+ "id").flatMap { k =>
+      val v = record.get(k)
+      if (v.hasType(typeSystem.NULL())) {
+        Some(k -> SchemaBuilder.getPropertyDefault(k))
+      } else if (k == "id") {
+        Some(k -> v.asLong(SchemaBuilder.LONG_DEFAULT))
+      } else if (v.hasType(typeSystem.INTEGER())) {
+        Some(k -> v.asInt(SchemaBuilder.INT_DEFAULT))
+      } else if (v.hasType(typeSystem.BOOLEAN())) {
+        Some(k -> v.asBoolean(SchemaBuilder.BOOL_DEFAULT))
+      } else if (v.hasType(typeSystem.STRING())) {
+        Some(k -> v.asString(SchemaBuilder.STRING_DEFAULT))
+      } else if (v.hasType(typeSystem.LIST())) {
+        Some(k -> v.asList())
+      } else {
+        None
+      }
+    }.toMap
+
+  override def outNeighbours(nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]] =
+    neighbours(nodeIds, s"(n)-[:$edge]->(m)")
+
+  override def inNeighbours(nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]] =
+    neighbours(nodeIds, s"(n)<-[:$edge]-(m)")
+
+  private def neighbours(nodeIds: Seq[Long], pattern: String): Map[Long, Seq[Long]] =
+    read { tx =>
+      tx
+        .run(
+          s"""
+             |$MATCH_NODES_BY_ID
+             |MATCH $pattern
+             |RETURN n.id AS src, collect(m.id) AS dst
+             |""".stripMargin,
+          new util.HashMap[String, Object](1) {
+            put("nodeIds", nodeIds.map(Long.box).asJava)
+          }
+        )
+        .list()
+        .asScala
+        .map { record =>
+          record.get("src").asLong() -> record.get("dst").asList().asScala.map(_.toString.toLong).toSeq
+        }
+        .toMap
+    }
+
+  /** Runs the given function within a single explicit read transaction. Unlike a managed transaction, this is not
+    * retried on transient errors, so the side effects of `f` happen at most once.
+    */
+  override def withReadSession[T](f: IDriver => T): T = Option(readTx.get()) match {
+    case Some(_) => f(this)
+    case None =>
+      Using.resource(driver.session(SessionConfig.builder().withDefaultAccessMode(AccessMode.READ).build())) {
+        session =>
+          Using.resource(session.beginTransaction()) { tx =>
+            readTx.set(tx)
+            try {
+              f(this)
+            } finally {
+              readTx.remove()
+            }
+          }
+      }
+  }
+
+  /** Runs the given read query against the read session of the calling thread if there is one, or in a transaction of
+    * its own otherwise.
+    */
+  private def read[T](f: QueryRunner => T): T = Option(readTx.get()) match {
+    case Some(tx) => f(tx)
+    case None     => Using.resource(driver.session()) { session => session.executeRead(f(_)) }
+  }
+
   override def buildSchema(): Unit = {
     Using.resource(driver.session()) { session =>
       session.writeTransaction { tx =>
@@ -274,14 +429,39 @@ final class Neo4jDriver(
     }
   }
 
-  override def buildSchemaPayload(): String = {
-    val btreeAndConstraints = NODES_IN_SCHEMA
-      .map(l => s"""
-          |CREATE RANGE INDEX ${l.toLowerCase}_id_btree_index IF NOT EXISTS FOR (n:$l) ON (n.id)
-          |""".stripMargin.trim)
-      .mkString("\n")
-    s"""CREATE LOOKUP INDEX node_label_lookup_index IF NOT EXISTS FOR (n) ON EACH labels(n)
-      |$btreeAndConstraints""".stripMargin
+  override def buildSchemaPayload(): String =
+    s"""$LABEL_LOOKUP_INDEX_PAYLOAD
+       |$idIndexPayload""".stripMargin
+
+  private def idIndexPayload: String = NODES_IN_SCHEMA
+    .map(l => s"""
+        |CREATE RANGE INDEX ${l.toLowerCase}_id_btree_index IF NOT EXISTS FOR (n:$l) ON (n.id)
+        |""".stripMargin.trim)
+    .mkString("\n")
+
+  /** Drops the label lookup index for the duration of the load. The `id` range indexes are created if missing and kept,
+    * as edges are written by matching their endpoints on `id`.
+    */
+  override def beginBulkLoad(): Unit = Using.resource(driver.session()) { session =>
+    session.executeWrite { tx =>
+      tx.run(s"DROP INDEX $LABEL_LOOKUP_INDEX IF EXISTS")
+      idIndexPayload.lines().forEach(line => tx.run(line))
+    }
+    session.run(s"CALL db.awaitIndexes($INDEX_TIMEOUT_SECONDS)").consume()
+  }
+
+  override def endBulkLoad(): Unit = Using.resource(driver.session()) { session =>
+    session.executeWrite { tx => tx.run(LABEL_LOOKUP_INDEX_PAYLOAD).consume() }
+    logger.info(s"Re-created $LABEL_LOOKUP_INDEX, which will be populated in the background")
+  }
+
+  override def indexesOnline: Boolean = Using.resource(driver.session()) { session =>
+    session.executeRead { tx =>
+      tx.run("SHOW INDEXES YIELD state WHERE state <> 'ONLINE' RETURN count(*) AS pending")
+        .single()
+        .get("pending")
+        .asLong() == 0
+    }
   }
 }
 
@@ -306,4 +486,22 @@ object Neo4jDriver {
   /** Default maximum number of transactions to bundle in a single transaction
     */
   private val DEFAULT_TX_MAX = 25
+
+  /** The index over all node labels, which is deferred during bulk loads.
+    */
+  private val LABEL_LOOKUP_INDEX = "node_label_lookup_index"
+
+  private val LABEL_LOOKUP_INDEX_PAYLOAD =
+    s"CREATE LOOKUP INDEX $LABEL_LOOKUP_INDEX IF NOT EXISTS FOR (n) ON EACH labels(n)"
+
+  /** How long to wait for indexes to come online before a bulk load begins.
+    */
+  private val INDEX_TIMEOUT_SECONDS = 300
+
+  /** Binds `n` to the nodes whose `id` is in `$nodeIds`. The `id` indexes are per label, so an unlabelled match would
+    * scan all nodes. Instead, the IDs are looked up under each label of the schema.
+    */
+  private val MATCH_NODES_BY_ID = SchemaBuilder.NodeToProperties.keys.toSeq.sorted
+    .map(l => s"MATCH (n:$l) WHERE n.id IN $$nodeIds RETURN n")
+    .mkString("CALL {\n", "\nUNION ALL\n", "\n}")
 }
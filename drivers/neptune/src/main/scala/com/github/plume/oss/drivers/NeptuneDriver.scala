@@ -66,6 +66,7 @@ final class NeptuneDriver(
   override def isConnected: Boolean = !cluster.isClosed
 
   override def clear(): Unit = {
+    symbolIndex.clear()
     g().V().count().next() match {
       case noVs if noVs == 0L => // do nothing
       case noVs if noVs < 10000L =>
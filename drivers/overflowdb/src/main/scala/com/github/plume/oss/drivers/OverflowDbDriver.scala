@@ -14,7 +14,7 @@ import overflowdb.{BatchedUpdate, Config, DetachedNodeData, Edge, Node}
 
 import java.io.{FileOutputStream, OutputStreamWriter, File as JFile}
 import scala.collection.mutable
-import scala.jdk.CollectionConverters.{IteratorHasAsScala, MapHasAsScala}
+import scala.jdk.CollectionConverters.{IteratorHasAsScala, MapHasAsScala, SeqHasAsJava, SetHasAsScala}
 import scala.util.*
 
 /** Driver to create an OverflowDB database file.
@@ -58,6 +58,7 @@ final class OverflowDbDriver(
 
   override def clear(): Unit = {
     cpg.graph.nodes.asScala.foreach(safeRemove)
+    symbolIndex.clear()
   }
 
   override def exists(nodeId: Long): Boolean = cpg.graph.node(nodeId) != null
@@ -65,8 +66,37 @@ final class OverflowDbDriver(
   override def exists(srcId: Long, dstId: Long, edge: String): Boolean =
     cpg.graph.node(srcId).out(edge).asScala.exists { dst => dst.id() == dstId }
 
+  /** Property indexes dropped for the duration of a bulk load.
+    */
+  private val deferredIndexes = mutable.Set.empty[String]
+
+  override def beginBulkLoad(): Unit = deferredIndexes.synchronized {
+    val indexManager = cpg.graph.indexManager
+    indexManager.getIndexedNodeProperties.asScala.toSeq.foreach { property =>
+      indexManager.dropNodePropertyIndex(property)
+      deferredIndexes.add(property)
+    }
+  }
+
+  override def endBulkLoad(): Unit = deferredIndexes.synchronized {
+    // Each index is populated by its own scan over all nodes, so these may run in parallel
+    deferredIndexes.toSeq.asJava.parallelStream().forEach(cpg.graph.indexManager.createNodePropertyIndex(_))
+    logger.info(s"Built ${deferredIndexes.size} deferred property indexes")
+    deferredIndexes.clear()
+  }
+
+  override def indexesOnline: Boolean = deferredIndexes.synchronized(deferredIndexes.isEmpty)
+
+  override def assignsNodeIds: Boolean = false
+
+  /** OverflowDB assigns node IDs itself, so an interrupted transaction can not be replayed with the IDs it had.
+    */
+  override def resumeFrom(checkpoint: BulkTxCheckpoint): Unit =
+    throw new UnsupportedOperationException("OverflowDB bulk transactions can not be resumed from a checkpoint")
+
   override def bulkTx(dg: DiffOrBuilder): Int = {
     BatchedUpdate.applyDiff(cpg.graph, dg)
+    indexSymbols(dg)
     dg.size()
   }
 
@@ -93,6 +123,30 @@ final class OverflowDbDriver(
       }
       .toList
 
+  override def outNeighbours(nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]] =
+    neighbours(nodeIds, _.out(edge))
+
+  override def inNeighbours(nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]] =
+    neighbours(nodeIds, _.in(edge))
+
+  private def neighbours(nodeIds: Seq[Long], step: Node => java.util.Iterator[Node]): Map[Long, Seq[Long]] =
+    nodeIds
+      .flatMap(id => Option(cpg.graph.node(id)))
+      .map(n => n.id() -> step(n).asScala.map(_.id()).toSeq)
+      .filter { case (_, ns) => ns.nonEmpty }
+      .toMap
+
+  override def propertiesFromIds(nodeIds: Seq[Long], keys: String*): Map[Long, Map[String, Any]] =
+    nodeIds
+      .flatMap(id => Option(cpg.graph.node(id)))
+      .map { n =>
+        val properties = n.propertiesMap()
+        n.id() -> keys.map { k =>
+          k -> Option(properties.get(k)).getOrElse(SchemaBuilder.getPropertyDefault(k))
+        }.toMap
+      }
+      .toMap
+
   /** Serializes the graph in the OverflowDB instance to the
     * [[http://graphml.graphdrawing.org/specification/dtd.html GraphML]] format to the given OutputStreamWriter. This
     * format is supported by [[https://tinkerpop.apache.org/docs/current/reference/#graphml TinkerGraph]] and
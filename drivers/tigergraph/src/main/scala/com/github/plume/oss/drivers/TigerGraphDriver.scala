@@ -16,6 +16,7 @@ import sttp.client3.circe.*
 import sttp.model.{MediaType, Uri}
 
 import java.io.IOException
+import java.nio.charset.StandardCharsets
 import scala.concurrent.duration.{Duration, DurationInt}
 import scala.jdk.CollectionConverters.{CollectionHasAsScala, IteratorHasAsScala}
 import scala.util.{Failure, Success, Try}
@@ -59,8 +60,11 @@ final class TigerGraphDriver(
     case _: Exception => false
   }
 
-  override def clear(): Unit = NODES_IN_SCHEMA.foreach { nodeType =>
-    Try(delete(s"graph/cpg/delete_by_type/vertices/${nodeType}_"))
+  override def clear(): Unit = {
+    symbolIndex.clear()
+    NODES_IN_SCHEMA.foreach { nodeType =>
+      Try(delete(s"graph/cpg/delete_by_type/vertices/${nodeType}_"))
+    }
   }
 
   /** Does nothing as HTTP does not require closing
@@ -146,20 +150,30 @@ final class TigerGraphDriver(
 
   override def bulkTx(dg: DiffOrBuilder): Int = {
     // Node operations
-    dg.iterator.asScala
-      .collect { case x: DetachedNodeData => x }
-      .grouped(txMax)
-      .foreach(bulkCreateNode)
-    dg.iterator.asScala
-      .collect { case x: BatchedUpdate.SetNodeProperty => x }
-      .grouped(txMax)
-      .foreach(bulkNodeSetProperty)
+    metrics.time(IngestionMetrics.BULK_TX_NODES) {
+      val changes = dg.iterator.asScala.collect { case x: DetachedNodeData => x }
+      commitBatches(IngestionMetrics.BULK_TX_NODES, txMax, changes) { ops =>
+          bulkCreateNode(ops)
+          0 // Failed upserts are thrown
+        }
+    }
+    metrics.time(IngestionMetrics.BULK_TX_PROPERTIES) {
+      val changes = dg.iterator.asScala.collect { case x: BatchedUpdate.SetNodeProperty => x }
+      commitBatches(IngestionMetrics.BULK_TX_PROPERTIES, txMax, changes) { ops =>
+          bulkNodeSetProperty(ops)
+          0 // Failed upserts are thrown
+        }
+    }
     // Edge operations
-    dg.iterator.asScala
-      .collect { case x: BatchedUpdate.CreateEdge => x }
-      .grouped(txMax)
-      .foreach(bulkCreateEdge)
+    metrics.time(IngestionMetrics.BULK_TX_EDGES) {
+      val changes = dg.iterator.asScala.collect { case x: BatchedUpdate.CreateEdge => x }
+      commitBatches(IngestionMetrics.BULK_TX_EDGES, txMax, changes) { ops =>
+          bulkCreateEdge(ops)
+          0 // Failed upserts are thrown
+        }
+    }
 
+    indexSymbols(dg)
     dg.size()
   }
 
@@ -236,6 +250,65 @@ final class TigerGraphDriver(
       .toList
   }
 
+  override def outNeighbours(nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]] =
+    neighbours("query/cpg/out_neighbours", nodeIds, edge)
+
+  override def inNeighbours(nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]] =
+    neighbours("query/cpg/in_neighbours", nodeIds, edge)
+
+  private def neighbours(endpoint: String, nodeIds: Seq[Long], edge: String): Map[Long, Seq[Long]] =
+    if (nodeIds.isEmpty) Map.empty
+    else {
+      val params = nodeIds.map(id => "ids" -> id.toString) :+ ("edge_label" -> s"_$edge")
+      get(endpoint, params).head.asObject.get
+        .toMap("neighbours")
+        .asArray
+        .get
+        .map(_.asObject.get.toMap)
+        .map { m => m("src").asNumber.get.toLong.get -> m("dst").asNumber.get.toLong.get }
+        .groupBy(_._1)
+        .map { case (src, xs) => src -> xs.map(_._2) }
+    }
+
+  override def propertiesFromIds(nodeIds: Seq[Long], keys: String*): Map[Long, Map[String, Any]] =
+    if (nodeIds.isEmpty) Map.empty
+    else {
+      val nodeTypes = get("query/cpg/v_types", nodeIds.map(id => "ids" -> id.toString)).head.asObject.get
+        .toMap("types")
+        .asArray
+        .get
+        .map(_.asObject.get.toMap)
+        .map { m => m("id").asNumber.get.toLong.get -> m("node_type").asString.get.stripSuffix("_") }
+        .toMap
+      // Only query the properties each vertex type defines, as the remaining keys can only hold their default
+      val found = nodeTypes
+        .groupBy(_._2)
+        .toSeq
+        .flatMap { case (nodeType, xs) =>
+          val ids = xs.keys.toSeq.map(id => "ids" -> id.toString)
+          keys.filter(SchemaBuilder.NodeToProperties.getOrElse(nodeType, Set.empty[String]).contains).flatMap { k =>
+            val params = ids ++ Seq("node_type" -> s"${nodeType}_", "property" -> s"_$k")
+            val res = SchemaBuilder.getPropertyDefault(k) match {
+              case _: Boolean => get("query/cpg/b_property_from_ids", params)
+              case _: Int     => get("query/cpg/i_property_from_ids", params)
+              case _          => get("query/cpg/s_property_from_ids", params)
+            }
+            res.head.asObject.get
+              .toMap("properties")
+              .asArray
+              .get
+              .map(_.asObject.get.toMap)
+              .map { m => (m("id").asNumber.get.toLong.get, k, scalaValue(m("property")).get) }
+          }
+        }
+        .groupBy(_._1)
+        .map { case (id, xs) => id -> xs.map { case (_, k, v) => k -> v }.toMap }
+      nodeTypes.map { case (id, _) =>
+        val props = keys.map(k => k -> SchemaBuilder.getPropertyDefault(k)).toMap ++ found.getOrElse(id, Map.empty)
+        id -> deserializeLists(props)
+      }
+    }
+
   override def buildSchema(): Unit = postGSQL(buildSchemaPayload())
 
   override def buildSchemaPayload(): String = {
@@ -323,10 +396,12 @@ final class TigerGraphDriver(
   }
 
   private def post(endpoint: String, payload: PayloadBody): Seq[Json] = {
-    val uri = buildUri(endpoint)
+    val uri  = buildUri(endpoint)
+    val body = payload.asJson.noSpaces.getBytes(StandardCharsets.UTF_8)
+    metrics.increment(IngestionMetrics.BYTES_SENT, body.length)
     val response = request()
       .post(uri)
-      .body(payload)
+      .body(body)
       .response(asJson[TigerGraphResponse])
       .send(backend)
     unboxResponse(response)
@@ -528,6 +603,44 @@ object TigerGraphDriver {
         |  FROM seed:src
         |  WHERE src.id IN ids;
         |}
+        |""".stripMargin,
+      """
+        |CREATE QUERY v_types(SET<UINT> ids) FOR GRAPH cpg {
+        |  TYPEDEF TUPLE<id UINT, node_type STRING> RES;
+        |  SetAccum<RES> @@result;
+        |  seed = {ANY};
+        |  temp = SELECT src
+        |         FROM seed:src
+        |         WHERE src.id IN ids
+        |         ACCUM @@result += RES(src.id, src.type);
+        |  PRINT @@result as types;
+        |}
+        |""".stripMargin,
+      """
+        |CREATE QUERY out_neighbours(SET<UINT> ids, STRING edge_label) FOR GRAPH cpg {
+        |  TYPEDEF TUPLE<src UINT, dst UINT> RES;
+        |  SetAccum<RES> @@result;
+        |  seed = {ANY};
+        |  temp = SELECT tgt
+        |         FROM seed:src -(:e)-> :tgt
+        |         WHERE src.id IN ids
+        |           AND e.type == edge_label
+        |         ACCUM @@result += RES(src.id, tgt.id);
+        |  PRINT @@result as neighbours;
+        |}
+        |""".stripMargin,
+      """
+        |CREATE QUERY in_neighbours(SET<UINT> ids, STRING edge_label) FOR GRAPH cpg {
+        |  TYPEDEF TUPLE<src UINT, dst UINT> RES;
+        |  SetAccum<RES> @@result;
+        |  seed = {ANY};
+        |  temp = SELECT tgt
+        |         FROM seed:src -(:e)-> :tgt
+        |         WHERE tgt.id IN ids
+        |           AND e.type == edge_label
+        |         ACCUM @@result += RES(tgt.id, src.id);
+        |  PRINT @@result as neighbours;
+        |}
         |""".stripMargin
     ) ++
       Array("STRING", "INT", "BOOL").map(x => s"""
@@ -541,6 +654,19 @@ object TigerGraphDriver {
            |          ACCUM @@result += RES(src.id, src.getAttr(property, "$x"));
            |  PRINT @@result as properties;
            |}
+           |""".stripMargin) ++
+      Array("STRING", "INT", "BOOL").map(x => s"""
+           |CREATE QUERY ${x(0).toLower}_property_from_ids(SET<UINT> ids, STRING node_type, STRING property) FOR GRAPH cpg {
+           |  TYPEDEF TUPLE<id UINT, property $x> RES;
+           |  SetAccum<RES> @@result;
+           |  seed = {ANY};
+           |  temp =  SELECT src
+           |          FROM seed:src
+           |          WHERE src.id IN ids
+           |            AND src.type == node_type
+           |          ACCUM @@result += RES(src.id, src.getAttr(property, "$x"));
+           |  PRINT @@result as properties;
+           |}
            |""".stripMargin)).mkString
   }
 }
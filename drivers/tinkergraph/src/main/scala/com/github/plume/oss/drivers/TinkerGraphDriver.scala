@@ -1,16 +1,44 @@
 package com.github.plume.oss.drivers
 
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource
 import org.slf4j.{Logger, LoggerFactory}
 
 import java.io.File
+import java.nio.file.Path
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, ExecutionContext, Future}
 import scala.util.Using
 
 /** The driver used to connect to an in-memory TinkerGraph instance.
   */
 final class TinkerGraphDriver extends GremlinDriver {
 
+  import TinkerGraphDriver.*
+
   override protected val logger: Logger = LoggerFactory.getLogger(classOf[TinkerGraphDriver])
 
+  /** Edges of a snapshot that are still being loaded in the background, see [[importGraph]].
+    */
+  @volatile private var pendingEdges: Option[Future[Unit]] = None
+
+  /** Waits for any edges still being loaded from a snapshot before handing out the traversal source.
+    */
+  override def g(): GraphTraversalSource = {
+    awaitImport()
+    super.g()
+  }
+
+  override def close(): Unit =
+    try awaitImport()
+    finally super.close()
+
+  private def awaitImport(): Unit = synchronized {
+    pendingEdges.foreach { f =>
+      pendingEdges = None
+      Await.result(f, Duration.Inf)
+    }
+  }
+
   /** Add or update a org.apache.commons.configuration.BaseConfiguration key-value pair.
     *
     * @param key
@@ -23,7 +51,8 @@ final class TinkerGraphDriver extends GremlinDriver {
   }
 
   /** Export the currently connected graph to the given path. The extension of the file should be included and may only
-    * be .xml, .json, or .kryo. If a graph file already exists it will be overwritten.
+    * be .xml, .json, .kryo, or .pgs for a [[TinkerGraphSnapshot]]. If a graph file already exists it will be
+    * overwritten.
     *
     * @param filePath
     *   the file path to export to.
@@ -33,31 +62,43 @@ final class TinkerGraphDriver extends GremlinDriver {
       throw new RuntimeException("The driver is not connected to any graph and therefore cannot export anything!")
     }
     if (!isSupportedExtension(filePath)) {
-      throw new RuntimeException("Unsupported graph extension! Supported types are GraphML, GraphSON, and Gryo.")
-    }
-    Using.resource(this.graph.traversal()) { g =>
-      g.io[Any](filePath).write().iterate()
+      throw new RuntimeException(UNSUPPORTED_EXTENSION)
     }
+    awaitImport()
+    if (isSnapshot(filePath)) TinkerGraphSnapshot.write(this.graph, Path.of(filePath))
+    else
+      Using.resource(this.graph.traversal()) { g =>
+        g.io[Any](filePath).write().iterate()
+      }
   }
 
-  /** Imports a .xml, .json, or .kryo TinkerGraph file into the currently connected graph.
+  /** Imports a .xml, .json, .kryo, or .pgs TinkerGraph file into the currently connected graph. Snapshots in the .pgs
+    * format are decoded in parallel from memory-mapped blocks, and may be loaded lazily.
     *
     * @param filePath
     *   the file path to import from.
+    * @param lazyEdges
+    *   if true and the file is a snapshot, returns once all vertices are loaded while the edges are loaded in the
+    *   background. Any subsequent query waits for these to complete.
     */
-  def importGraph(filePath: String): Unit = {
+  def importGraph(filePath: String, lazyEdges: Boolean = false): Unit = {
     if (!isConnected) {
       throw new RuntimeException("The driver is not connected to any graph and therefore cannot import anything!")
     }
     if (!isSupportedExtension(filePath)) {
-      throw new RuntimeException("Unsupported graph extension! Supported types are GraphML, GraphSON, and Gryo.")
+      throw new RuntimeException(UNSUPPORTED_EXTENSION)
     }
     if (!new File(filePath).exists) {
       throw new RuntimeException(s"No existing serialized graph file was found at $filePath")
     }
-    Using.resource(this.graph.traversal()) { g =>
-      g.io[Any](filePath).read().iterate()
-    }
+    awaitImport()
+    if (isSnapshot(filePath)) {
+      pendingEdges = Some(TinkerGraphSnapshot.read(this.graph, Path.of(filePath), lazyEdges)(ExecutionContext.global))
+      if (!lazyEdges) awaitImport()
+    } else
+      Using.resource(this.graph.traversal()) { g =>
+        g.io[Any](filePath).read().iterate()
+      }
   }
 
   /** Determines if the extension of the given file path is supported by TinkerGraph I/O.
@@ -66,7 +107,18 @@ final class TinkerGraphDriver extends GremlinDriver {
     *   the file path to check.
     */
   private def isSupportedExtension(filePath: String): Boolean = {
-    val ext = filePath.substring(filePath.lastIndexOf('.') + 1).toLowerCase()
-    "xml" == ext || "json" == ext || "kryo" == ext
+    val ext = extension(filePath)
+    "xml" == ext || "json" == ext || "kryo" == ext || TinkerGraphSnapshot.EXTENSION == ext
   }
+
+  private def isSnapshot(filePath: String): Boolean = TinkerGraphSnapshot.EXTENSION == extension(filePath)
+
+  private def extension(filePath: String): String = filePath.substring(filePath.lastIndexOf('.') + 1).toLowerCase()
+}
+
+object TinkerGraphDriver {
+
+  private val UNSUPPORTED_EXTENSION =
+    "Unsupported graph extension! Supported types are GraphML, GraphSON, Gryo, and Plume graph snapshots."
+
 }
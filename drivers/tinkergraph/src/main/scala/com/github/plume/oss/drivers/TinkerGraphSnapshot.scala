@@ -0,0 +1,223 @@
+package com.github.plume.oss.drivers
+
+import org.apache.tinkerpop.gremlin.structure.{Graph, T, Vertex}
+
+import java.io.{BufferedOutputStream, ByteArrayOutputStream, DataOutputStream, IOException}
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardOpenOption}
+import java.nio.{ByteBuffer, MappedByteBuffer}
+import scala.collection.mutable.ArrayBuffer
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.jdk.CollectionConverters.IteratorHasAsScala
+import scala.util.Using
+
+/** A chunked binary snapshot format for TinkerGraph. A snapshot consists of a header, a sequence of independently
+  * encoded vertex and edge blocks, and a footer indexing the offset, length, and record count of every block. The
+  * footer lets a reader memory-map and decode all blocks in parallel, while the graph itself is populated sequentially
+  * as TinkerGraph does not support concurrent writes.
+  *
+  * All vertex blocks precede all edge blocks so that, when loading lazily, vertices can be made available before the
+  * edges between them are.
+  */
+object TinkerGraphSnapshot {
+
+  /** The file extension of snapshots.
+    */
+  val EXTENSION = "pgs"
+
+  /** The number of vertices or edges encoded per block.
+    */
+  val RECORDS_PER_BLOCK = 16384
+
+  private val MAGIC       = 0x504c4753 // "PLGS"
+  private val VERSION     = 1
+  private val HEADER_SIZE = 8
+
+  private val VERTEX_BLOCK: Byte = 0
+  private val EDGE_BLOCK: Byte   = 1
+
+  private val STRING_VALUE: Byte       = 0
+  private val INT_VALUE: Byte          = 1
+  private val LONG_VALUE: Byte         = 2
+  private val BOOLEAN_VALUE: Byte      = 3
+  private val DOUBLE_VALUE: Byte       = 4
+  private val STRING_ARRAY_VALUE: Byte = 5
+
+  private case class BlockInfo(kind: Byte, offset: Long, length: Int, count: Int)
+
+  /** A decoded vertex or edge, where `properties` alternates between keys and values as accepted by
+    * [[org.apache.tinkerpop.gremlin.structure.Graph.addVertex]].
+    */
+  private case class VertexRecord(id: Long, label: String, properties: Array[AnyRef])
+
+  private case class EdgeRecord(src: Long, dst: Long, label: String, properties: Array[AnyRef])
+
+  /** Writes all vertices and edges of the given graph to a snapshot at the given path, overwriting any existing file.
+    */
+  def write(graph: Graph, path: Path): Unit =
+    Using.resource(new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) { out =>
+      out.writeInt(MAGIC)
+      out.writeInt(VERSION)
+      var offset = HEADER_SIZE.toLong
+      val blocks = ArrayBuffer.empty[BlockInfo]
+      def writeBlocks[E](kind: Byte, elements: Iterator[E])(encode: (DataOutputStream, E) => Unit): Unit =
+        elements.grouped(RECORDS_PER_BLOCK).foreach { chunk =>
+          val bytes = new ByteArrayOutputStream()
+          Using.resource(new DataOutputStream(bytes)) { blockOut => chunk.foreach(encode(blockOut, _)) }
+          blocks += BlockInfo(kind, offset, bytes.size(), chunk.size)
+          bytes.writeTo(out)
+          offset += bytes.size()
+        }
+
+      writeBlocks(VERTEX_BLOCK, graph.vertices().asScala) { (blockOut, v) =>
+        blockOut.writeLong(v.id().asInstanceOf[Number].longValue())
+        writeString(blockOut, v.label())
+        writeProperties(blockOut, v.properties[Any]().asScala.map(p => p.key() -> p.value()).toSeq)
+      }
+      writeBlocks(EDGE_BLOCK, graph.edges().asScala) { (blockOut, e) =>
+        blockOut.writeLong(e.outVertex().id().asInstanceOf[Number].longValue())
+        blockOut.writeLong(e.inVertex().id().asInstanceOf[Number].longValue())
+        writeString(blockOut, e.label())
+        writeProperties(blockOut, e.properties[Any]().asScala.map(p => p.key() -> p.value()).toSeq)
+      }
+      // Footer: the block index followed by the offset at which it starts
+      out.writeInt(blocks.size)
+      blocks.foreach { b =>
+        out.writeByte(b.kind)
+        out.writeLong(b.offset)
+        out.writeInt(b.length)
+        out.writeInt(b.count)
+      }
+      out.writeLong(offset)
+    }
+
+  /** Reads the snapshot at the given path into the given graph. Blocks are decoded in parallel on the given execution
+    * context and inserted in file order.
+    *
+    * @param lazyEdges
+    *   if true, returns as soon as all vertices are inserted, while edges continue to be loaded in the background.
+    * @return
+    *   a future that completes once all edges are inserted. Callers loading lazily must await it before accessing the
+    *   graph.
+    */
+  def read(graph: Graph, path: Path, lazyEdges: Boolean = false)(implicit ec: ExecutionContext): Future[Unit] = {
+    val channel = FileChannel.open(path, StandardOpenOption.READ)
+    try {
+      val (vBlocks, eBlocks) = readFooter(channel).partition(_.kind == VERTEX_BLOCK)
+      // Edge blocks are decoded alongside vertex blocks so that their decoding overlaps with vertex insertion
+      val vertices = vBlocks.map(b => Future(decode(map(channel, b), b.count)(decodeVertex)))
+      val edges    = eBlocks.map(b => Future(decode(map(channel, b), b.count)(decodeEdge)))
+      vertices.foreach { f =>
+        Await.result(f, Duration.Inf).foreach { v =>
+          graph.addVertex(withIdAndLabel(v)*)
+        }
+      }
+      val insertEdges = () =>
+        try {
+          edges.foreach { f =>
+            Await.result(f, Duration.Inf).foreach { e =>
+              vertex(graph, e.src).addEdge(e.label, vertex(graph, e.dst), e.properties*)
+            }
+          }
+        } finally channel.close()
+      if (lazyEdges) Future(insertEdges())
+      else {
+        insertEdges()
+        Future.unit
+      }
+    } catch {
+      case e: Throwable =>
+        channel.close()
+        throw e
+    }
+  }
+
+  private def readFooter(channel: FileChannel): Seq[BlockInfo] = {
+    val size = channel.size()
+    if (size < HEADER_SIZE + 8) throw new IOException("The file is too small to be a graph snapshot")
+    val header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+    if (header.getInt() != MAGIC) throw new IOException("The file is not a graph snapshot")
+    val version = header.getInt()
+    if (version != VERSION) throw new IOException(s"Unsupported graph snapshot version $version")
+    val footerOffset = channel.map(FileChannel.MapMode.READ_ONLY, size - 8, 8).getLong()
+    val footer       = channel.map(FileChannel.MapMode.READ_ONLY, footerOffset, size - 8 - footerOffset)
+    Seq.fill(footer.getInt()) {
+      BlockInfo(footer.get(), footer.getLong(), footer.getInt(), footer.getInt())
+    }
+  }
+
+  private def map(channel: FileChannel, block: BlockInfo): MappedByteBuffer =
+    channel.map(FileChannel.MapMode.READ_ONLY, block.offset, block.length)
+
+  private def decode[T](buf: ByteBuffer, count: Int)(f: ByteBuffer => T): Seq[T] = Seq.fill(count)(f(buf))
+
+  private def decodeVertex(buf: ByteBuffer): VertexRecord =
+    VertexRecord(buf.getLong(), readString(buf), readProperties(buf))
+
+  private def decodeEdge(buf: ByteBuffer): EdgeRecord =
+    EdgeRecord(buf.getLong(), buf.getLong(), readString(buf), readProperties(buf))
+
+  private def vertex(graph: Graph, id: Long): Vertex = graph.vertices(Long.box(id)).next()
+
+  private def withIdAndLabel(v: VertexRecord): Array[AnyRef] = {
+    val xs = new Array[AnyRef](v.properties.length + 4)
+    xs(0) = T.id
+    xs(1) = Long.box(v.id)
+    xs(2) = T.label
+    xs(3) = v.label
+    System.arraycopy(v.properties, 0, xs, 4, v.properties.length)
+    xs
+  }
+
+  private def writeString(out: DataOutputStream, s: String): Unit = {
+    val bytes = s.getBytes(StandardCharsets.UTF_8)
+    out.writeInt(bytes.length)
+    out.write(bytes)
+  }
+
+  private def readString(buf: ByteBuffer): String = {
+    val bytes = new Array[Byte](buf.getInt())
+    buf.get(bytes)
+    new String(bytes, StandardCharsets.UTF_8)
+  }
+
+  private def writeProperties(out: DataOutputStream, properties: Seq[(String, Any)]): Unit = {
+    out.writeInt(properties.size)
+    properties.foreach { case (k, v) =>
+      writeString(out, k)
+      v match {
+        case x: Int     => out.writeByte(INT_VALUE); out.writeInt(x)
+        case x: Long    => out.writeByte(LONG_VALUE); out.writeLong(x)
+        case x: Boolean => out.writeByte(BOOLEAN_VALUE); out.writeBoolean(x)
+        case x: Double  => out.writeByte(DOUBLE_VALUE); out.writeDouble(x)
+        case xs: Array[String] =>
+          out.writeByte(STRING_ARRAY_VALUE)
+          out.writeInt(xs.length)
+          xs.foreach(writeString(out, _))
+        case x => out.writeByte(STRING_VALUE); writeString(out, x.toString)
+      }
+    }
+  }
+
+  private def readProperties(buf: ByteBuffer): Array[AnyRef] = {
+    val xs = new Array[AnyRef](buf.getInt() * 2)
+    var i  = 0
+    while (i < xs.length) {
+      xs(i) = readString(buf)
+      xs(i + 1) = buf.get() match {
+        case INT_VALUE          => Int.box(buf.getInt())
+        case LONG_VALUE         => Long.box(buf.getLong())
+        case BOOLEAN_VALUE      => Boolean.box(buf.get() != 0)
+        case DOUBLE_VALUE       => Double.box(buf.getDouble())
+        case STRING_ARRAY_VALUE => Array.fill(buf.getInt())(readString(buf))
+        case STRING_VALUE       => readString(buf)
+        case tag                => throw new IOException(s"Unknown property type tag $tag in graph snapshot")
+      }
+      i += 2
+    }
+    xs
+  }
+
+}
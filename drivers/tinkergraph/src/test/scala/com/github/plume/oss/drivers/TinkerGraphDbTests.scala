@@ -3,6 +3,7 @@ package com.github.plume.oss.drivers
 import com.github.plume.oss.testfixtures.PlumeDriverFixture.{b1, m1}
 import com.github.plume.oss.testfixtures.PlumeDriverFixture
 import io.shiftleft.codepropertygraph.generated.NodeTypes.{BLOCK, METHOD}
+import io.shiftleft.codepropertygraph.generated.nodes.{NewBlock, NewMethod}
 import io.shiftleft.codepropertygraph.generated.{Cpg, EdgeTypes}
 import io.shiftleft.passes.IntervalKeyPool
 import io.shiftleft.proto.cpg.Cpg.NodePropertyName.{NAME, ORDER}
@@ -12,9 +13,13 @@ import java.io.{File => JFile}
 
 class TinkerGraphDbTests extends PlumeDriverFixture(new TinkerGraphDriver()) {
 
+  // The graph is held in memory, so there is nothing to resume an ingestion into
+  override protected def supportsCheckpointing: Boolean = false
+
   private val graphML     = JFile.createTempFile("plume", ".xml")
   private val graphSON    = JFile.createTempFile("plume", ".json")
   private val gryo        = JFile.createTempFile("plume", ".kryo")
+  private val snapshot    = JFile.createTempFile("plume", ".pgs")
   private val invalidFile = JFile.createTempFile("plume", ".txt")
 
   "should be able to serialize and deserialize XML graphs" in {
@@ -49,6 +54,85 @@ class TinkerGraphDbTests extends PlumeDriverFixture(new TinkerGraphDriver()) {
     validateSimpleGraph(driver)
   }
 
+  "should be able to serialize and deserialize graph snapshots" in {
+    createSimpleGraph(driver)
+    validateSimpleGraph(driver)
+    val td = driver.asInstanceOf[TinkerGraphDriver]
+    td.exportGraph(snapshot.getAbsolutePath)
+    td.clear()
+    td.importGraph(snapshot.getAbsolutePath)
+    validateSimpleGraph(driver)
+  }
+
+  "should be able to lazily load the edges of graph snapshots" in {
+    createSimpleGraph(driver)
+    val td = driver.asInstanceOf[TinkerGraphDriver]
+    td.exportGraph(snapshot.getAbsolutePath)
+    td.clear()
+    td.importGraph(snapshot.getAbsolutePath, lazyEdges = true)
+    validateSimpleGraph(driver)
+  }
+
+  "should not assign IDs beyond a leased range" in {
+    val shard = new TinkerGraphDriver()
+    try {
+      shard.leaseIds(1, 1)
+      assertThrows[IllegalStateException] {
+        createSimpleGraph(shard)
+      }
+    } finally shard.close()
+  }
+
+  "should merge the snapshots of shards written with disjoint ID ranges" in {
+    val snapshots = (0 until 2).map { i =>
+      val shard    = new TinkerGraphDriver()
+      val snapshot = JFile.createTempFile("plume-shard", ".pgs")
+      try {
+        shard.leaseIds(1 + i * 1000L, (i + 1) * 1000L)
+        createSimpleGraph(shard)
+        shard.exportGraph(snapshot.getAbsolutePath)
+      } finally shard.close()
+      snapshot
+    }
+    val td = driver.asInstanceOf[TinkerGraphDriver]
+    snapshots.foreach(f => td.importGraph(f.getAbsolutePath))
+    val methodIds = driver.propertyFromNodes(METHOD, NAME.name()).map(_.getOrElse("id", -1L).toString.toLong)
+    methodIds.size shouldBe 2
+    methodIds.count(_ <= 1000L) shouldBe 1
+    driver.propertyFromNodes(BLOCK, ORDER.name()).size shouldBe 2
+  }
+
+  "should write spilled changes along with those held on the heap" in {
+    val shard = new TinkerGraphDriver()
+    // Spills every addition of at least three changes, regardless of the heap
+    val buffer = new SpillableDiffBuffer(shard, 0, minSpillSize = 3)
+    try {
+      val m  = NewMethod().name("foo").order(1)
+      val b1 = NewBlock().order(1)
+      val b2 = NewBlock().order(2)
+      buffer.add(new BatchedUpdate.DiffGraphBuilder().addNode(m).addNode(b1).addEdge(m, b1, EdgeTypes.AST))
+      // The edge from the spilled method is held on the heap
+      buffer.add(new BatchedUpdate.DiffGraphBuilder().addNode(b2).addEdge(m, b2, EdgeTypes.AST))
+      buffer.spilledChanges shouldBe 3
+      buffer.spilledNodes shouldBe 2
+      val diff = new BatchedUpdate.DiffGraphBuilder()
+      buffer.drainTo(diff)
+      diff.size() shouldBe 2
+      buffer.replayNodes() shouldBe 2
+      shard.bulkTx(diff)
+      buffer.replayEdges() shouldBe 1
+
+      val List(method: Map[String, Any]) = shard.propertyFromNodes(METHOD, NAME.name(), ORDER.name())
+      method.get(NAME.name()) shouldBe Some("foo")
+      method.get(ORDER.name()) shouldBe Some(1)
+      shard.propertyFromNodes(BLOCK, ORDER.name()).size shouldBe 2
+      shard.outNeighbours(Seq(1L), EdgeTypes.AST).values.flatten.toSet shouldBe Set(2L, 3L)
+    } finally {
+      buffer.close()
+      shard.close()
+    }
+  }
+
   "should reject invalid file extension on export" in {
     val td = driver.asInstanceOf[TinkerGraphDriver]
     assertThrows[RuntimeException] {
@@ -1,24 +1,47 @@
 import java.io.{BufferedReader, File, FileReader}
+import java.nio.charset.StandardCharsets
 import java.nio.file.{Files, Path}
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{LinkedBlockingQueue, Semaphore, TimeUnit}
 import scala.concurrent.ExecutionContext.Implicits.global
 import scala.concurrent.duration.Duration
 import scala.concurrent.{Await, Future, blocking}
 import scala.jdk.CollectionConverters.*
 import scala.sys.process.*
-import scala.util.boundary
+import scala.util.{Try, boundary}
 import scala.util.boundary.break
 
-// Combinations of driver, project, Gb mem, known to OOM
-val oomCombinations: Set[(String, String, Int)] = Set(("tinkergraph", "compress", 2))
-val drivers                                     = Seq("overflowdb", "tinkergraph", "neo4j-embedded")
+// Combinations of driver, project, Gb mem, known to OOM at any commit. These seed the file-backed set below, which is
+// extended whenever a run is observed to run out of memory at the commit being benchmarked
+val seedOomCombinations: Set[(String, String, Int)] = Set(("tinkergraph", "compress", 2))
+val drivers                                         = Seq("overflowdb", "tinkergraph", "neo4j-embedded")
+val memoryConfigs                                   = Seq(2, 4, 6, 8)
+// Drivers backed by a shared database server, whose cells clear each other's data and so must never run concurrently
+val remoteDrivers = Set("neo4j", "tigergraph", "neptune")
+
+/** Runs the driver × project × heap-size matrix. Cells that completed, or that are known to run out of memory, are
+  * skipped so that an interrupted run can simply be restarted. A cell's `.done` marker holds the commit that produced
+  * its results, and cells completed at any other commit are run again.
+  *
+  * Options:
+  *   - `--parallel N` runs up to N (driver, project) cells at once. Heap sizes of the same cell run one after another,
+  *     largest first, so that an OOM at one size skips all smaller ones. Each cell stores its graph under its own
+  *     results directory, and at most one cell of each remote driver runs at a time.
+  *   - `--pin` pins each concurrently running cell to its own, disjoint set of CPUs with `taskset`.
+  */
+@main def main(args: String*): Unit = {
+  val parallelism = args.sliding(2).collectFirst { case Seq("--parallel", n) => n.toInt }.getOrElse(1)
+  val pinCpus     = args.contains("--pin")
+
+  // Results are only reused if they were produced by the commit being benchmarked
+  val commit = gitCommit()
 
-@main def main(): Unit = {
   println("[info] Ensuring compilation status and benchmark dataset availability...")
-  "sbt compile benchmarkDownloadTask".!
+  // Compile the JMH sources up front so that concurrent cells do not race to generate them
+  "sbt compile Jmh/compile benchmarkDownloadTask".!
 
   val datasetDir = Path.of("workspace", "defects4j")
   val resultsDir = Path.of("results").createDirIfNotExists
+  val oomCombinations = OomCombinations(Path.of(resultsDir.toString, "oom-combinations.txt"), seedOomCombinations)
 
   def benchmarkArgs(driver: String, project: String, memGb: Int): JmhProcessInfo = {
     val projectDir       = Path.of(datasetDir.toString, project)
@@ -28,10 +51,18 @@ val drivers                                     = Seq("overflowdb", "tinkergraph
     val outputPath       = Path.of(driverResultsDir.toString, s"output-Xmx${memGb}G")
     val (writeOutputFile, readOutputFile) =
       (Path.of(s"$outputPath-write.txt").toFile, Path.of(s"$outputPath-read.txt").toFile)
-    val existingAttempt = Path.of(s"$outputPath-sbt.txt").toFile.exists()
+    val doneMarker = Path.of(s"$outputPath.done").toFile
+    // The default storage locations are shared by every cell, and are deleted before each write benchmark
+    val storagePath = Path.of(driverResultsDir.toString, s"storage-Xmx${memGb}G").toAbsolutePath
+    val storageArgs = driver match {
+      case "overflowdb"     => s"--storage-location $storagePath.bin"
+      case "tinkergraph"    => s"--import-path $storagePath.pgs --export-path $storagePath.pgs"
+      case "neo4j-embedded" => s"--databaseDir $storagePath"
+      case _                => ""
+    }
     val cmd =
-      s"Jmh/runMain com.github.plume.oss.Benchmark $driver ${projectDir.toAbsolutePath} -o ${outputPath.toAbsolutePath} -r ${resultsPath.toAbsolutePath} -m $memGb"
-    JmhProcessInfo(cmd, existingAttempt, writeOutputFile, readOutputFile)
+      s"Jmh/runMain com.github.plume.oss.Benchmark $driver ${projectDir.toAbsolutePath} -o ${outputPath.toAbsolutePath} -r ${resultsPath.toAbsolutePath} -m $memGb $storageArgs".trim
+    JmhProcessInfo(cmd, doneMarker, writeOutputFile, readOutputFile)
   }
 
   println("[info] Available projects:")
@@ -41,33 +72,65 @@ val drivers                                     = Seq("overflowdb", "tinkergraph
   println("[info] Drivers to be benchmarked:")
   drivers.foreach(d => println(s" - $d"))
 
-  val memoryConfigs = Seq(2, 4, 6, 8)
-
-  memoryConfigs.reverse.foreach { memConfig =>
-    drivers.foreach { driver =>
-      projects.foreach { project =>
-        val projectName = project.getFileName.toString.toLowerCase.stripSuffix(".jar")
-        if (oomCombinations.contains(driver, projectName, memConfig)) {
-          println(
-            s"[info] '$driver' on project '$project' with `-Xmx${memConfig}G` will cause an OutOfMemoryException. Skipping..."
-          )
-        } else {
-          val JmhProcessInfo(cmd, resultsExist, writeOutputFile, readOutputFile) =
-            benchmarkArgs(driver, project.getFileName.toString, memConfig)
-          if (resultsExist) {
-            println(
-              s"[info] An attempt for '$driver' on project '$project' with `-Xmx${memConfig}G` already exist. Skipping..."
-            )
-          } else {
-            println(s"[info] Benchmarking '$driver' on project '$project' with `-Xmx${memConfig}G`")
-            runAndMonitorBenchmarkProcess(cmd, writeOutputFile, readOutputFile)
+  // Each concurrently running cell takes one slot, and with it one disjoint range of CPUs
+  val cpus        = Runtime.getRuntime.availableProcessors()
+  val cpusPerSlot = math.max(1, cpus / parallelism)
+  val slots       = new LinkedBlockingQueue[Int]((0 until parallelism).asJava)
+  def cpuRange(slot: Int): Option[String] =
+    if (pinCpus) Option(s"${(slot * cpusPerSlot) % cpus}-${((slot + 1) * cpusPerSlot - 1) % cpus}") else None
+
+  val remoteLocks = drivers.filter(remoteDrivers.contains).map(_ -> new Semaphore(1)).toMap
+
+  val cells = for { driver <- drivers; project <- projects } yield (driver, project)
+  val runs = cells.map { case (driver, project) =>
+    Future {
+      blocking {
+        // Wait for the remote database before taking a slot, so that a waiting cell does not hold one
+        val remoteLock = remoteLocks.get(driver)
+        remoteLock.foreach(_.acquire())
+        val slot = slots.take()
+        try {
+          val projectName = project.getFileName.toString.toLowerCase.stripSuffix(".jar")
+          boundary {
+            memoryConfigs.sorted.reverse.foreach { memConfig =>
+              if (oomCombinations.contains(driver, projectName, memConfig, commit)) {
+                println(
+                  s"[info] '$driver' on project '$project' with `-Xmx${memConfig}G` ran out of memory at $commit. Skipping..."
+                )
+              } else {
+                val JmhProcessInfo(cmd, doneMarker, writeOutputFile, readOutputFile) =
+                  benchmarkArgs(driver, project.getFileName.toString, memConfig)
+                if (doneMarker.exists() && Files.readString(doneMarker.toPath).trim == commit) {
+                  println(
+                    s"[info] '$driver' on project '$project' with `-Xmx${memConfig}G` has already completed at $commit. Skipping..."
+                  )
+                } else {
+                  println(s"[info] Benchmarking '$driver' on project '$project' with `-Xmx${memConfig}G`")
+                  runAndMonitorBenchmarkProcess(cmd, writeOutputFile, readOutputFile, cpuRange(slot)) match {
+                    case CellOutcome.Completed => Files.writeString(doneMarker.toPath, commit)
+                    case CellOutcome.OutOfMemory =>
+                      // Smaller heaps will run out of memory too
+                      memoryConfigs.filter(_ <= memConfig).foreach(oomCombinations.add(driver, projectName, _, commit))
+                      break()
+                    case CellOutcome.Failed =>
+                      println(s"[warn] '$driver' on project '$project' with `-Xmx${memConfig}G` failed, see its logs")
+                  }
+                }
+              }
+            }
           }
+        } finally {
+          slots.put(slot)
+          remoteLock.foreach(_.release())
         }
       }
     }
   }
+  Await.result(Future.sequence(runs), Duration.Inf)
 }
 
+def gitCommit(): String = Try("git rev-parse --short HEAD".!!.trim).getOrElse("unknown")
+
 def sendCtrlCSignal(processId: Long): Unit = {
   val osName = System.getProperty("os.name").toLowerCase
   if (osName.contains("win")) {
@@ -79,12 +142,20 @@ def sendCtrlCSignal(processId: Long): Unit = {
   }
 }
 
-def runAndMonitorBenchmarkProcess(cmd: String, writeOutputFile: File, readOutputFile: File): Unit = {
+def runAndMonitorBenchmarkProcess(
+  cmd: String,
+  writeOutputFile: File,
+  readOutputFile: File,
+  cpuRange: Option[String]
+): CellOutcome = {
   writeOutputFile.createIfNotExists
   readOutputFile.createIfNotExists
 
   val sbtFile = File(writeOutputFile.getAbsolutePath.stripSuffix("write.txt") + "sbt.txt")
-  val processBuilder = new java.lang.ProcessBuilder("sbt", cmd).redirectOutput(sbtFile)
+  // Concurrent cells each start their own sbt server rather than prompting to connect to another's
+  val sbtCmd         = Seq("sbt", "--batch", "-Dsbt.server.forcestart=true", cmd)
+  val pinnedCmd      = cpuRange.map(cpus => Seq("taskset", "-c", cpus) ++ sbtCmd).getOrElse(sbtCmd)
+  val processBuilder = new java.lang.ProcessBuilder(pinnedCmd*).redirectOutput(sbtFile)
 
   // Ignore locks for aborted JMH processes
   val env = processBuilder.environment
@@ -105,13 +176,8 @@ def runAndMonitorBenchmarkProcess(cmd: String, writeOutputFile: File, readOutput
 //          shouldTerminate = true
 //        }
         if (line.contains("java.lang.OutOfMemoryError")) {
-          println("OutOfMemoryError detected. Sending Ctrl+C signal to process...")
           shouldTerminate = true
         }
-
-        if (shouldTerminate) {
-          sendCtrlCSignal(processId)
-        }
       }
     } finally {
       reader.close()
@@ -119,12 +185,25 @@ def runAndMonitorBenchmarkProcess(cmd: String, writeOutputFile: File, readOutput
     shouldTerminate
   }
 
+  def anyLogHasErrors: Boolean =
+    readLogsForErrors(writeOutputFile) || readLogsForErrors(readOutputFile) || readLogsForErrors(sbtFile)
+
   // Monitor the output file for timeout/error messages
   var shouldTerminate = false
   while (!shouldTerminate && process.isAlive) {
     Thread.sleep(5000)
-    shouldTerminate = readLogsForErrors(writeOutputFile) || readLogsForErrors(readOutputFile) || readLogsForErrors(sbtFile)
+    shouldTerminate = anyLogHasErrors
+    if (shouldTerminate) {
+      println("OutOfMemoryError detected. Sending Ctrl+C signal to process...")
+      sendCtrlCSignal(processId)
+    }
   }
+  val exitCode = process.waitFor()
+  // The process may have run out of memory after the last scan, in which case it has already exited by itself
+  if (!shouldTerminate) shouldTerminate = anyLogHasErrors
+  if (shouldTerminate) CellOutcome.OutOfMemory
+  else if (exitCode == 0) CellOutcome.Completed
+  else CellOutcome.Failed
 }
 
 implicit class PathExt(x: Path) {
@@ -144,4 +223,41 @@ implicit class FileExt(x: File) {
   }
 }
 
-case class JmhProcessInfo(cmd: String, resultsExist: Boolean, writeOutputFile: File, readOutputFile: File)
+case class JmhProcessInfo(cmd: String, doneMarker: File, writeOutputFile: File, readOutputFile: File)
+
+enum CellOutcome {
+  case Completed, OutOfMemory, Failed
+}
+
+/** The (driver, project, Gb mem) combinations known to run out of memory, persisted as comma-separated lines together
+  * with the commit they ran out of memory at. Only the seed entries and those of the commit being benchmarked skip a
+  * run, so that a change that reduces memory usage is benchmarked again at every heap size.
+  */
+class OomCombinations(file: Path, seed: Set[(String, String, Int)]) {
+
+  private val known = scala.collection.mutable.Set.empty[(String, String, Int, String)] ++= {
+    if (Files.exists(file)) {
+      Files.readAllLines(file).asScala.map(_.trim).filter(_.nonEmpty).map(_.split(",")).collect {
+        case Array(driver, project, memGb, commit) => (driver, project, memGb.toInt, commit)
+      }
+    } else Nil
+  }
+
+  def contains(driver: String, project: String, memGb: Int, commit: String): Boolean = synchronized {
+    seed.contains((driver, project, memGb)) || known.contains((driver, project, memGb, commit))
+  }
+
+  def add(driver: String, project: String, memGb: Int, commit: String): Unit = synchronized {
+    if (known.add((driver, project, memGb, commit))) {
+      println(
+        s"[info] Recording that '$driver' on project '$project' with `-Xmx${memGb}G` runs out of memory at $commit"
+      )
+      Files.write(
+        file,
+        known.toSeq.sorted.map { case (d, p, m, c) => s"$d,$p,$m,$c" }.asJava,
+        StandardCharsets.UTF_8
+      )
+    }
+  }
+
+}
@@ -0,0 +1,265 @@
+package com.github.plume.oss.benchmarking;
+
+import org.cache2k.benchmark.jmh.OptionalScalarResult;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.profile.ProfilerException;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Samples the resident set size, the used and committed heap, and the accumulated GC pause time on a
+ * background thread while an iteration runs. Unlike {@link org.cache2k.benchmark.jmh.LinuxVmProfiler} and
+ * {@link org.cache2k.benchmark.jmh.HeapProfiler}, which record a single value per iteration, this exposes
+ * short-lived peaks such as those during bulk transactions or while Soot loads classes.
+ *
+ * <p>The profiler accepts an init line of {@code ;}-separated options: {@code interval} sets the
+ * sampling interval in milliseconds (default 50), and {@code csv} names a file to which every sample
+ * is appended as a time series, together with the {@code @Param} values of the benchmark.
+ */
+public class SamplingMemoryProfiler implements InternalProfiler {
+
+    private static final String PREFIX = "+memory.sampled";
+    private static final long DEFAULT_INTERVAL_MS = 50;
+    private static final String CSV_HEADER =
+            "benchmark,params,iteration,timeMs,rssKb,heapUsedBytes,heapCommittedBytes,gcPauseTimeMs";
+    // The serialized Plume configuration, which is the same for every benchmark of a run
+    private static final String CONFIG_PARAM = "configStr";
+
+    private final long intervalMs;
+    private final File csvFile;
+    private final List<Sample> samples = new ArrayList<>();
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> task;
+    private volatile long startTime;
+    private volatile long startGcPauseTime;
+    private int iteration;
+
+    public SamplingMemoryProfiler() throws ProfilerException {
+        this("");
+    }
+
+    public SamplingMemoryProfiler(String initLine) throws ProfilerException {
+        long interval = DEFAULT_INTERVAL_MS;
+        File csv = null;
+        for (String option : initLine.split(";")) {
+            if (option.isBlank()) {
+                continue;
+            }
+            String[] kv = option.split("=", 2);
+            if (kv.length != 2) {
+                throw new ProfilerException("Expected key=value, was: " + option);
+            }
+            switch (kv[0].trim()) {
+                case "interval":
+                    try {
+                        interval = Long.parseLong(kv[1].trim());
+                    } catch (NumberFormatException ex) {
+                        throw new ProfilerException("Invalid sampling interval: " + kv[1]);
+                    }
+                    if (interval <= 0) {
+                        throw new ProfilerException("The sampling interval must be positive, was: " + interval);
+                    }
+                    break;
+                case "csv":
+                    csv = new File(kv[1].trim());
+                    break;
+                default:
+                    throw new ProfilerException("Unknown option: " + kv[0]);
+            }
+        }
+        this.intervalMs = interval;
+        this.csvFile = csv;
+    }
+
+    /**
+     * @return the resident set size of this process in kB, or -1 if {@code /proc/self/status} is not available.
+     */
+    private static long readRssKb() {
+        Path status = Paths.get("/proc/self/status");
+        if (!Files.exists(status)) return -1;
+        try (BufferedReader r = Files.newBufferedReader(status, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.split("\\s+")[1]);
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the accumulated time of the stop-the-world pauses of all collectors in ms. ZGC and Shenandoah report
+     * their concurrent cycles through separate "Cycles" beans, and G1 through a "Concurrent GC" bean, all of which
+     * run alongside the application and are excluded.
+     */
+    private static long totalGcPauseTime() {
+        long gcTime = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String name = bean.getName();
+            if (name.contains("Cycles") || name.contains("Concurrent")) {
+                continue;
+            }
+            gcTime += Math.max(0, bean.getCollectionTime());
+        }
+        return gcTime;
+    }
+
+    private void sample() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        Sample s = new Sample(
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime),
+                readRssKb(),
+                heap.getUsed(),
+                heap.getCommitted(),
+                totalGcPauseTime() - startGcPauseTime);
+        synchronized (samples) {
+            samples.add(s);
+        }
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        synchronized (samples) {
+            samples.clear();
+        }
+        iteration++;
+        startTime = System.nanoTime();
+        startGcPauseTime = totalGcPauseTime();
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "jmh-memory-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        task = executor.scheduleAtFixedRate(this::sample, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+                                                       IterationParams iterationParams, IterationResult result) {
+        task.cancel(false);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(intervalMs * 10, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        sample();
+        List<Sample> snapshot;
+        synchronized (samples) {
+            snapshot = new ArrayList<>(samples);
+        }
+        if (csvFile != null) {
+            writeCsv(benchmarkParams, snapshot);
+        }
+        List<Result> l = new ArrayList<>();
+        if (snapshot.get(0).rssKb >= 0) {
+            addDistribution(l, "rss", "kB", snapshot, s -> s.rssKb);
+        }
+        addDistribution(l, "heapUsed", "bytes", snapshot, s -> s.heapUsed);
+        addDistribution(l, "heapCommitted", "bytes", snapshot, s -> s.heapCommitted);
+        l.add(new OptionalScalarResult(PREFIX + ".gcPauseTime", snapshot.get(snapshot.size() - 1).gcPauseTimeMs, "ms",
+                AggregationPolicy.AVG));
+        l.add(new OptionalScalarResult(PREFIX + ".samples", snapshot.size(), "#", AggregationPolicy.AVG));
+        return l;
+    }
+
+    /**
+     * Adds the peak and the 50th, 90th and 99th percentiles of the given metric.
+     */
+    private static void addDistribution(List<Result> l, String name, String unit, List<Sample> samples,
+                                        ToDoubleFunction<Sample> metric) {
+        double[] values = samples.stream().mapToDouble(metric).sorted().toArray();
+        l.add(new OptionalScalarResult(PREFIX + "." + name + ".peak", values[values.length - 1], unit,
+                AggregationPolicy.MAX));
+        for (int p : Arrays.asList(50, 90, 99)) {
+            int idx = (int) Math.ceil(p / 100.0 * values.length) - 1;
+            l.add(new OptionalScalarResult(PREFIX + "." + name + ".p" + p, values[Math.max(0, idx)], unit,
+                    AggregationPolicy.AVG));
+        }
+    }
+
+    /**
+     * @return the {@code @Param} values of the benchmark as {@code ;}-separated {@code name=value} pairs, without the
+     * serialized configuration.
+     */
+    private static String paramsOf(BenchmarkParams benchmarkParams) {
+        StringJoiner params = new StringJoiner(";");
+        for (String key : benchmarkParams.getParamsKeys()) {
+            if (!CONFIG_PARAM.equals(key)) {
+                params.add(key + "=" + benchmarkParams.getParam(key));
+            }
+        }
+        return params.toString();
+    }
+
+    private void writeCsv(BenchmarkParams benchmarkParams, List<Sample> snapshot) {
+        String benchmark = benchmarkParams.getBenchmark();
+        String params = paramsOf(benchmarkParams);
+        boolean newFile = !csvFile.exists() || csvFile.length() == 0;
+        try (PrintWriter out = new PrintWriter(new FileWriter(csvFile, StandardCharsets.UTF_8, true))) {
+            if (newFile) {
+                out.println(CSV_HEADER);
+            }
+            for (Sample s : snapshot) {
+                out.println(benchmark + "," + params + "," + iteration + "," + s.timeMs + "," + s.rssKb + ","
+                        + s.heapUsed + "," + s.heapCommitted + "," + s.gcPauseTimeMs);
+            }
+        } catch (IOException ex) {
+            System.err.println("SamplingMemoryProfiler: unable to write " + csvFile);
+            ex.printStackTrace();
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "Samples RSS, heap usage and GC pause time in the background and reports peaks and percentiles";
+    }
+
+    private static final class Sample {
+
+        final long timeMs;
+        final long rssKb;
+        final long heapUsed;
+        final long heapCommitted;
+        final long gcPauseTimeMs;
+
+        Sample(long timeMs, long rssKb, long heapUsed, long heapCommitted, long gcPauseTimeMs) {
+            this.timeMs = timeMs;
+            this.rssKb = rssKb;
+            this.heapUsed = heapUsed;
+            this.heapCommitted = heapCommitted;
+            this.gcPauseTimeMs = gcPauseTimeMs;
+        }
+
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.github.plume.oss.benchmarking;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary JMH results that break a single AST creation down into its phases. Times are reported in milliseconds and
+ * summed over the invocations of an iteration. See {@link WritePhaseRecorder} for how they are recorded.
+ * <p>
+ * JMH reports the public numeric fields and the public, argument-less numeric methods of this class. It is written in
+ * Java so that the counters are plain public fields, rather than the private fields and accessor pairs that Scala
+ * generates for a {@code var}.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class WritePhaseCounters {
+
+    public double extractClassesMs;
+    public double sootLoadMs;
+    public double astBuildMs;
+    public double diffMergeMs;
+    public double bulkTxMs;
+    public double bulkTxNodesMs;
+    public double bulkTxPropertiesMs;
+    public double bulkTxEdgesMs;
+    public long changes;
+    public long nodes;
+    public long allocatedBytes;
+    public long retainedHeapBytes;
+    public long bytesSent;
+    public long internedStrings;
+    public long batches;
+    public long batchedChanges;
+    public long batchFailures;
+    public long batchResizes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        extractClassesMs = 0;
+        sootLoadMs = 0;
+        astBuildMs = 0;
+        diffMergeMs = 0;
+        bulkTxMs = 0;
+        bulkTxNodesMs = 0;
+        bulkTxPropertiesMs = 0;
+        bulkTxEdgesMs = 0;
+        changes = 0;
+        nodes = 0;
+        allocatedBytes = 0;
+        retainedHeapBytes = 0;
+        bytesSent = 0;
+        internedStrings = 0;
+        batches = 0;
+        batchedChanges = 0;
+        batchFailures = 0;
+        batchResizes = 0;
+    }
+
+    /**
+     * @return the number of changes committed per second spent in {@code bulkTx}.
+     */
+    public double changesPerSecond() {
+        return bulkTxMs > 0 ? changes / (bulkTxMs / 1000) : 0;
+    }
+
+    /**
+     * @return the bytes allocated by the JVM, across all threads, per committed change. Before JDK 21 this is a rough
+     * lower bound, see {@link WritePhaseRecorder#totalAllocatedBytes()}.
+     */
+    public double allocatedBytesPerChange() {
+        return changes > 0 ? (double) allocatedBytes / changes : 0;
+    }
+
+    /**
+     * @return the growth of the live heap, after a full GC, per committed node. This is dominated by the graph itself
+     * for in-process databases.
+     */
+    public double retainedHeapBytesPerNode() {
+        return nodes > 0 ? (double) retainedHeapBytes / nodes : 0;
+    }
+
+    /**
+     * @return the approximate bytes sent to a remote database per committed change.
+     */
+    public double bytesSentPerChange() {
+        return changes > 0 ? (double) bytesSent / changes : 0;
+    }
+
+    /**
+     * @return the mean number of changes per write transaction.
+     */
+    public double changesPerBatch() {
+        return batches > 0 ? (double) batchedChanges / batches : 0;
+    }
+
+}
@@ -3,13 +3,16 @@ package com.github.plume.oss
 import better.files.File
 import com.github.plume.oss.Benchmark.BenchmarkType.*
 import com.github.plume.oss.benchmarking.{
+  DriverReadBenchmark,
+  GraphReadBenchmark,
   GraphWriteBenchmark,
   Neo4jEmbedReadBenchmark,
   OverflowDbReadBenchmark,
+  SamplingMemoryProfiler,
   TinkerGraphReadBenchmark
 }
 import com.github.plume.oss.drivers.{IDriver, TinkerGraphDriver}
-import org.cache2k.benchmark.jmh.{HeapProfiler, LinuxVmProfiler}
+import org.cache2k.benchmark.jmh.{GcProfiler, HeapProfiler, LinuxVmProfiler}
 import org.openjdk.jmh.annotations.Mode
 import org.openjdk.jmh.runner.Runner
 import org.openjdk.jmh.runner.options.{ChainedOptionsBuilder, OptionsBuilder, TimeValue}
@@ -30,50 +33,55 @@ object Benchmark {
           s"Finished WRITE JMH benchmarks. Results: ${config.jmhResultFile}-WRITE.csv; Output: ${config.jmhOutputFile}-WRITE.csv"
         )
 
-        val readOptsBenchmark = config.dbConfig match {
-          case _: TinkerGraphConfig =>
-            Option(
-              createOptionsBoilerPlate(config, READ)
-                .include(classOf[TinkerGraphReadBenchmark].getSimpleName)
-                .build()
-            )
-          case _: OverflowDbConfig =>
-            Option(
-              createOptionsBoilerPlate(config, READ)
-                .include(classOf[OverflowDbReadBenchmark].getSimpleName)
-                .build()
-            )
-          case _: Neo4jEmbeddedConfig =>
-            Option(
-              createOptionsBoilerPlate(config, READ)
-                .include(classOf[Neo4jEmbedReadBenchmark].getSimpleName)
-                .build()
-            )
-          case x =>
-            println(s"Read benchmarks are not available for ${x.getClass.getSimpleName}, skipping...")
-            Option.empty
+        // The driver-agnostic benchmark runs on every database, alongside a native one where available
+        val nativeReadBenchmark: Option[Class[? <: GraphReadBenchmark]] = config.dbConfig match {
+          case _: TinkerGraphConfig   => Option(classOf[TinkerGraphReadBenchmark])
+          case _: OverflowDbConfig    => Option(classOf[OverflowDbReadBenchmark])
+          case _: Neo4jEmbeddedConfig => Option(classOf[Neo4jEmbedReadBenchmark])
+          case _                      => Option.empty
         }
-        readOptsBenchmark.foreach { opts =>
+        val readBenchmarks = classOf[DriverReadBenchmark] +: nativeReadBenchmark.toSeq
+        config.jmhReadThreads.foreach { threads =>
+          val readType = if (threads == 1) "READ" else s"READ-T$threads"
+          val opts = readBenchmarks
+            .foldLeft(createOptionsBoilerPlate(config, READ, threads)) { (opts, benchmarkClass) =>
+              opts.include(benchmarkClass.getSimpleName)
+            }
+            .threads(threads)
+            .build()
           new Runner(opts).run()
           println(
-            s"Finished READ JMH benchmarks. Results: ${config.jmhResultFile}-READ.csv; Output: ${config.jmhOutputFile}-READ.csv"
+            s"Finished $readType JMH benchmarks. Results: ${config.jmhResultFile}-$readType.csv; Output: ${config.jmhOutputFile}-$readType.csv"
           )
         }
 
       }
   }
 
-  private def createOptionsBoilerPlate(config: PlumeConfig, benchmarkType: BenchmarkType): ChainedOptionsBuilder = {
-    new OptionsBuilder()
+  /** Creates the common JMH options for a benchmark run. Read benchmarks run with more than one thread report
+    * throughput and sampled latency percentiles instead of the average time, and their files are suffixed with the
+    * thread count. The memory time series sampled during each iteration is written next to the results file.
+    */
+  private def createOptionsBoilerPlate(
+    config: PlumeConfig,
+    benchmarkType: BenchmarkType,
+    threads: Int = 1
+  ): ChainedOptionsBuilder = {
+    val typeName = benchmarkType.toString.toLowerCase
+    val suffix   = if (threads == 1) typeName else s"$typeName-t$threads"
+    val opts = new OptionsBuilder()
       .addProfiler(classOf[HeapProfiler])
       .addProfiler(classOf[LinuxVmProfiler])
+      .addProfiler(classOf[GcProfiler])
+      .addProfiler(classOf[SamplingMemoryProfiler], s"csv=${config.jmhResultFile}-$suffix-memory.csv")
       .warmupTime(TimeValue.seconds(30))
-      .mode(Mode.AverageTime)
       .forks(1)
-      .output(s"${config.jmhOutputFile}-${benchmarkType.toString.toLowerCase}.txt")
-      .result(s"${config.jmhResultFile}-${benchmarkType.toString.toLowerCase}.csv")
+      .output(s"${config.jmhOutputFile}-$suffix.txt")
+      .result(s"${config.jmhResultFile}-$suffix.csv")
       .param("configStr", write(config))
       .jvmArgsAppend(s"-Xmx${config.jmhMemoryGb}G", "-XX:+UseZGC")
+    if (threads == 1) opts.mode(Mode.AverageTime)
+    else opts.mode(Mode.Throughput).mode(Mode.SampleTime)
   }
 
   enum BenchmarkType {
@@ -105,6 +113,7 @@ object Benchmark {
     } else {
       config.dbConfig.toDriver
     }
+    if (config.adaptiveTx) driver.enableAdaptiveBatching()
 
     driver -> config
   }
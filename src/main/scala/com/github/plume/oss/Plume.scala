@@ -4,6 +4,8 @@ import com.github.plume.oss.drivers.*
 import io.joern.jimple2cpg.Config
 import scopt.{OParser, OptionParser}
 
+import java.nio.file.Paths
+
 /** Entry point for command line CPG creator
   */
 object Plume {
@@ -19,21 +21,50 @@ object Plume {
       .optionParser("plume", "An AST creator for comparing graph databases as static analysis backends.")
       .parse(args, PlumeConfig())
       .foreach { config =>
-        val driver = config.dbConfig.toDriver
-        driver match {
-          case d: TinkerGraphDriver =>
-            config.dbConfig.asInstanceOf[TinkerGraphConfig].importPath.foreach(d.importGraph)
-          case _ =>
-        }
-        new JimpleAst2Database(driver).createAst(Config().withInputPath(config.inputDir))
-        driver match {
-          case d: TinkerGraphDriver =>
-            config.dbConfig.asInstanceOf[TinkerGraphConfig].exportPath.foreach(d.exportGraph)
-          case _ =>
+        config.daemonPort match {
+          case Some(port) => PlumeDaemon.submit(port, config)
+          case None =>
+            val driver = config.dbConfig.toDriver
+            if (config.adaptiveTx) driver.enableAdaptiveBatching()
+            ingest(config, driver)
         }
       }
   }
 
+  /** Ingests the program at `config.inputDir` into the given driver, importing a TinkerGraph beforehand and exporting
+    * it afterwards if configured.
+    */
+  def ingest(config: PlumeConfig, driver: IDriver): Unit = {
+    driver match {
+      case d: TinkerGraphDriver =>
+        config.dbConfig.asInstanceOf[TinkerGraphConfig].importPath.foreach(d.importGraph(_))
+      case _ =>
+    }
+    if (config.shards > 1) ShardedIngestion.run(config, driver)
+    else {
+      val checkpoint = config.checkpoint.map(p => new BulkTxCheckpoint(Paths.get(p)))
+      try {
+        new JimpleAst2Database(
+          driver,
+          deferIndexes = config.deferIndexes,
+          lowMemory = config.lowMemory,
+          internStrings = config.internStrings,
+          checkpoint = checkpoint,
+          spillHeapPercentage = config.spillHeapPercentage
+        ).createAst(Config().withInputPath(config.inputDir))
+        // Only an ingestion that completed may forget its progress
+        checkpoint.foreach(_.delete())
+      } finally {
+        checkpoint.foreach(_.close())
+      }
+    }
+    driver match {
+      case d: TinkerGraphDriver =>
+        config.dbConfig.asInstanceOf[TinkerGraphConfig].exportPath.foreach(d.exportGraph(_))
+      case _ =>
+    }
+  }
+
   def optionParser(name: String, description: String): OptionParser[PlumeConfig] =
     new OptionParser[PlumeConfig](name) {
 
@@ -63,6 +94,61 @@ object Plume {
         .hidden()
         .action((x, c) => c.copy(jmhResultFile = x))
 
+      opt[Seq[Int]]('t', "jmh-read-threads")
+        .text(s"Comma-separated thread counts to run the read benchmarks with, e.g., 1,2,4,8. Default is 1.")
+        .hidden()
+        .validate {
+          case xs if xs.isEmpty || xs.exists(_ < 1) => failure("Thread counts must be at least 1")
+          case _                                    => success
+        }
+        .action((x, c) => c.copy(jmhReadThreads = x))
+
+      opt[Unit]("defer-indexes")
+        .text("Drop or postpone secondary database indexes while the graph is written, and build them once afterwards.")
+        .action((_, c) => c.copy(deferIndexes = true))
+
+      opt[Unit]("low-memory")
+        .text("Load and write classes in batches, releasing Soot method bodies once their AST is created.")
+        .action((_, c) => c.copy(lowMemory = true))
+
+      opt[Unit]("intern-strings")
+        .text("Share a single instance between equal string property values of the created nodes.")
+        .action((_, c) => c.copy(internStrings = true))
+
+      opt[Unit]("adaptive-tx")
+        .text("Adapt the size of write transactions to the throughput of the database instead of keeping it fixed.")
+        .action((_, c) => c.copy(adaptiveTx = true))
+
+      opt[String]("checkpoint")
+        .text(
+          "A file recording the committed transactions, from which an interrupted ingestion resumes when re-run. " +
+            "Combine with --low-memory to also skip the AST creation of committed classes."
+        )
+        .action((x, c) => c.copy(checkpoint = Option(x)))
+
+      opt[Int]("spill-heap-percentage")
+        .text(
+          "Spill the pending changes of the AST creation to disk once this percentage of the heap is in use, " +
+            "e.g., 80. Ignored for OverflowDB, which overflows to disk itself, and when checkpointing."
+        )
+        .validate {
+          case x if x < 1 || x > 99 => failure("The percentage must be between 1 and 99")
+          case _                    => success
+        }
+        .action((x, c) => c.copy(spillHeapPercentage = Option(x)))
+
+      opt[Int]("daemon-port")
+        .text("Submit the job to a Plume daemon listening on this local port instead of running it in this process.")
+        .action((x, c) => c.copy(daemonPort = Option(x)))
+
+      opt[Int]("shards")
+        .text("The number of worker processes to split the ingestion across. Default is 1.")
+        .validate {
+          case x if x < 1 => failure("At least one shard is required")
+          case _          => success
+        }
+        .action((x, c) => c.copy(shards = x))
+
       cmd("tinkergraph")
         .action((_, c) => c.copy(dbConfig = TinkerGraphConfig()))
         .children(
@@ -153,6 +239,16 @@ object Plume {
             .action((x, c) => c.copy(dbConfig = c.dbConfig.asInstanceOf[NeptuneConfig].copy(txMax = x)))
         )
 
+      checkConfig { c =>
+        c.dbConfig match {
+          case _ if c.checkpoint.isEmpty => success
+          case _ if c.shards > 1         => failure("Sharded ingestions can not be checkpointed")
+          case _: OverflowDbConfig | _: TinkerGraphConfig =>
+            failure(s"Ingestions into ${c.dbConfig.shortName} can not be checkpointed")
+          case _ => success
+        }
+      }
+
     }
 
 }
@@ -0,0 +1,291 @@
+package com.github.plume.oss
+
+import better.files.File
+import com.github.plume.oss.drivers.IDriver
+import com.sun.net.httpserver.{HttpExchange, HttpServer}
+import org.slf4j.LoggerFactory
+import soot.G
+import upickle.default.*
+
+import java.net.http.{HttpClient, HttpRequest, HttpResponse}
+import java.net.{InetAddress, InetSocketAddress, URI}
+import java.nio.charset.StandardCharsets
+import java.nio.file.attribute.PosixFilePermission.{OWNER_READ, OWNER_WRITE}
+import java.security.{MessageDigest, SecureRandom}
+import java.util.HexFormat
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import java.util.concurrent.{Callable, ExecutorService, Executors, TimeUnit}
+import scala.collection.mutable
+import scala.util.{Failure, Success, Try}
+
+/** A long-running process that accepts ingestion jobs over HTTP on the loopback interface, so that a series of jobs
+  * shares a warmed-up JVM and database connections rather than each paying for start-up.
+  *
+  * A job is a [[PlumeConfig]], as parsed by the `plume` CLI, posted as JSON to `/jobs`. The request returns once the
+  * job has completed, with its [[PlumeDaemon.JobResult]]. Jobs may be submitted concurrently, but are queued and run
+  * one at a time, as Soot keeps its state in global singletons. This state is reset before every job.
+  *
+  * As a job determines which files are read and written, it must carry the token that the daemon writes to a file only
+  * readable by the user running it, see [[PlumeDaemon.tokenFile]]. Requests from browsers, which carry an `Origin`
+  * header, and requests for any host other than the loopback interface, e.g., by DNS rebinding, are rejected.
+  *
+  * Drivers are pooled by database configuration and kept open between jobs, except for TinkerGraph, whose in-memory
+  * graph belongs to a single job, and OverflowDB, which only persists its graph when closed.
+  */
+final class PlumeDaemon(requestedPort: Int = PlumeDaemon.DEFAULT_PORT) extends AutoCloseable {
+
+  import PlumeDaemon.*
+
+  private val server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress, requestedPort), 0)
+  private val runner: ExecutorService = Executors.newSingleThreadExecutor()
+  // Only accessed by the runner
+  private val drivers   = mutable.Map.empty[(DatabaseConfig, Boolean), IDriver]
+  private val jobIds    = new AtomicLong(0)
+  private val queued    = new AtomicInteger(0)
+  private val completed = new AtomicLong(0)
+  private val token = {
+    val bytes = new Array[Byte](TOKEN_BYTES)
+    new SecureRandom().nextBytes(bytes)
+    HexFormat.of().formatHex(bytes)
+  }
+
+  server.createContext(JOBS_PATH, (exchange: HttpExchange) => handleJob(exchange))
+  server.createContext(STATUS_PATH, (exchange: HttpExchange) => handleStatus(exchange))
+  server.setExecutor(Executors.newCachedThreadPool())
+
+  /** @return
+    *   the port the daemon listens on.
+    */
+  def port: Int = server.getAddress.getPort
+
+  def start(): Unit = {
+    val file = tokenFile(port)
+    file.parent.createDirectoryIfNotExists(createParents = true)
+    file.delete(swallowIOExceptions = true)
+    file.createFile().setPermissions(Set(OWNER_READ, OWNER_WRITE)).writeText(token)
+    server.start()
+  }
+
+  /** Queues the given job and waits for it to complete.
+    */
+  def run(config: PlumeConfig): JobResult = {
+    val id        = jobIds.incrementAndGet()
+    val submitted = System.nanoTime()
+    queued.incrementAndGet()
+    runner
+      .submit(new Callable[JobResult] {
+        override def call(): JobResult = {
+          queued.decrementAndGet()
+          try execute(id, config, submitted)
+          finally completed.incrementAndGet()
+        }
+      })
+      .get()
+  }
+
+  private def execute(id: Long, config: PlumeConfig, submitted: Long): JobResult = {
+    val started = System.nanoTime()
+    logger.info(s"Running job $id on ${config.inputDir}")
+    val key    = config.dbConfig -> config.adaptiveTx
+    val pooled = isPooled(config.dbConfig)
+    Try(if (pooled) drivers.getOrElseUpdate(key, newDriver(config)) else newDriver(config)) match {
+      case Failure(e) =>
+        logger.error(s"Job $id could not connect to ${config.dbConfig.shortName}", e)
+        val queuedMs = millis(started - submitted)
+        JobResult(id, succeeded = false, queuedMs, millis(System.nanoTime() - started), error = Option(e.toString))
+      case Success(driver) =>
+        driver.metrics.reset()
+        G.reset()
+        // A pooled driver must not carry the checkpoint, node IDs, or symbols of this job over to the next one
+        val outcome =
+          try Try(Plume.ingest(config, driver))
+          finally driver.endIngestion()
+        val result = JobResult(
+          id,
+          outcome.isSuccess,
+          millis(started - submitted),
+          millis(System.nanoTime() - started),
+          driver.metrics.timings.map { case (phase, nanos) => phase -> millis(nanos) },
+          driver.metrics.counts,
+          outcome.failed.toOption.map(_.toString)
+        )
+        outcome.failed.foreach(e => logger.error(s"Job $id failed", e))
+        // A failed driver may have lost its connection, so the next job reconnects
+        if (!pooled || outcome.isFailure) {
+          drivers.remove(key)
+          Try(driver.close())
+        }
+        logger.info(s"Job $id completed in ${result.runMs} ms")
+        result
+    }
+  }
+
+  private def newDriver(config: PlumeConfig): IDriver = {
+    val driver = config.dbConfig.toDriver
+    if (config.adaptiveTx) driver.enableAdaptiveBatching()
+    driver
+  }
+
+  private def handleJob(exchange: HttpExchange): Unit = respond(exchange) {
+    val headers     = exchange.getRequestHeaders
+    val contentType = Option(headers.getFirst("Content-Type")).map(_.split(';').head.trim.toLowerCase)
+    if (!isLocalRequest(exchange)) 403 -> "Jobs must be submitted from this host, and not by a browser"
+    else if (exchange.getRequestMethod != "POST") 405 -> "Jobs must be submitted with POST"
+    else if (!contentType.contains("application/json")) 415 -> "Jobs must be submitted as application/json"
+    else if (!isAuthorized(headers.getFirst("Authorization"))) 401 -> s"Jobs must carry the token in ${tokenFile(port)}"
+    else
+      Try(read[PlumeConfig](new String(exchange.getRequestBody.readAllBytes(), StandardCharsets.UTF_8))) match {
+        case Success(config) => 200 -> write(run(config))
+        case Failure(e)      => 400 -> s"Malformed job: ${e.getMessage}"
+      }
+  }
+
+  private def handleStatus(exchange: HttpExchange): Unit = respond(exchange) {
+    if (!isLocalRequest(exchange)) 403 -> "The status must be requested from this host, and not by a browser"
+    else 200 -> write(DaemonStatus(queued.get(), completed.get()))
+  }
+
+  /** @return
+    *   true if the request was not sent by a browser, which always sets the `Origin` header of a POST, and names a
+    *   loopback host, which a page that rebound its own domain to the loopback interface can not.
+    */
+  private def isLocalRequest(exchange: HttpExchange): Boolean = {
+    val headers = exchange.getRequestHeaders
+    // Strips the port, if any, taking care not to split an IPv6 address
+    val host = Option(headers.getFirst("Host")).map { h =>
+      val portSeparator = h.lastIndexOf(':')
+      if (portSeparator > h.lastIndexOf(']')) h.take(portSeparator) else h
+    }
+    !headers.containsKey("Origin") && host.exists(h => LOOPBACK_HOSTS.contains(h.toLowerCase))
+  }
+
+  private def isAuthorized(authorization: String): Boolean =
+    authorization != null && MessageDigest.isEqual(
+      authorization.getBytes(StandardCharsets.UTF_8),
+      s"Bearer $token".getBytes(StandardCharsets.UTF_8)
+    )
+
+  private def respond(exchange: HttpExchange)(f: => (Int, String)): Unit = try {
+    val (status, body) = Try(f) match {
+      case Success(response) => response
+      case Failure(e) =>
+        logger.error(s"Unable to handle request to ${exchange.getRequestURI}", e)
+        500 -> e.toString
+    }
+    val bytes = body.getBytes(StandardCharsets.UTF_8)
+    exchange.getResponseHeaders.set("Content-Type", if (status == 200) "application/json" else "text/plain")
+    exchange.sendResponseHeaders(status, bytes.length)
+    exchange.getResponseBody.write(bytes)
+  } finally {
+    exchange.close()
+  }
+
+  /** Stops accepting jobs, waits for queued ones to complete, and closes all pooled drivers.
+    */
+  override def close(): Unit = {
+    server.stop(0)
+    tokenFile(port).delete(swallowIOExceptions = true)
+    runner.shutdown()
+    runner.awaitTermination(Long.MaxValue, TimeUnit.NANOSECONDS)
+    drivers.values.foreach(d => Try(d.close()))
+    drivers.clear()
+  }
+
+}
+
+object PlumeDaemon {
+
+  private val logger = LoggerFactory.getLogger(classOf[PlumeDaemon])
+
+  val DEFAULT_PORT = 9140
+
+  private val JOBS_PATH   = "/jobs"
+  private val STATUS_PATH = "/status"
+
+  private val TOKEN_BYTES    = 32
+  private val LOOPBACK_HOSTS = Set("localhost", "127.0.0.1", "[::1]")
+
+  /** @return
+    *   the file holding the token that jobs submitted to the daemon listening on the given port must carry.
+    */
+  def tokenFile(port: Int): File = File.home / ".plume" / s"daemon-$port.token"
+
+  /** The outcome of a job, with the time it spent queued and running, and the time spent in and the counts observed by
+    * each phase of the ingestion, see [[com.github.plume.oss.drivers.IngestionMetrics]].
+    */
+  final case class JobResult(
+    id: Long,
+    succeeded: Boolean,
+    queuedMs: Double,
+    runMs: Double,
+    phasesMs: Map[String, Double] = Map.empty,
+    counts: Map[String, Long] = Map.empty,
+    error: Option[String] = None
+  ) derives ReadWriter
+
+  final case class DaemonStatus(queued: Int, completed: Long) derives ReadWriter
+
+  /** Runs a daemon until the process is terminated.
+    *
+    * @param args
+    *   optionally, the port to listen on. Default is [[DEFAULT_PORT]].
+    */
+  def main(args: Array[String]): Unit = {
+    val daemon = new PlumeDaemon(args.headOption.map(_.toInt).getOrElse(DEFAULT_PORT))
+    sys.addShutdownHook(daemon.close())
+    daemon.start()
+    logger.info(s"Listening for jobs on ${InetAddress.getLoopbackAddress.getHostAddress}:${daemon.port}")
+  }
+
+  /** Submits the given job to the daemon listening on the given local port, and reports its timings once complete.
+    *
+    * @throws RuntimeException
+    *   if the daemon rejected the job or the job failed.
+    */
+  def submit(port: Int, config: PlumeConfig): JobResult = {
+    val token = Try(tokenFile(port).contentAsString.trim).getOrElse {
+      throw new RuntimeException(s"No daemon is listening on port $port, as ${tokenFile(port)} can not be read")
+    }
+    val request = HttpRequest
+      .newBuilder(URI.create(s"http://${InetAddress.getLoopbackAddress.getHostAddress}:$port$JOBS_PATH"))
+      .header("Content-Type", "application/json")
+      .header("Authorization", s"Bearer $token")
+      .POST(HttpRequest.BodyPublishers.ofString(write(withAbsolutePaths(config).copy(daemonPort = None))))
+      .build()
+    val response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString())
+    if (response.statusCode() != 200)
+      throw new RuntimeException(s"The daemon rejected the job (${response.statusCode()}): ${response.body()}")
+    val result = read[JobResult](response.body())
+    println(f"Job ${result.id} spent ${result.queuedMs}%.0f ms queued and ${result.runMs}%.0f ms running")
+    result.phasesMs.toSeq.sortBy(_._1).foreach { case (phase, ms) => println(f"  $phase%-24s $ms%12.1f ms") }
+    result.error.foreach(e => throw new RuntimeException(s"Job ${result.id} failed: $e"))
+    result
+  }
+
+  /** Resolves the paths of the given job against the working directory of the client, as the daemon's differs.
+    */
+  private def withAbsolutePaths(config: PlumeConfig): PlumeConfig = {
+    def absolute(path: String): String = File(path).pathAsString
+    val dbConfig = config.dbConfig match {
+      case c: TinkerGraphConfig =>
+        c.copy(importPath = c.importPath.map(absolute), exportPath = c.exportPath.map(absolute))
+      case c: OverflowDbConfig    => c.copy(storageLocation = absolute(c.storageLocation))
+      case c: Neo4jEmbeddedConfig => c.copy(databaseDir = absolute(c.databaseDir))
+      case c: NeptuneConfig       => c.copy(keyCertChainFile = absolute(c.keyCertChainFile))
+      case c                      => c
+    }
+    config.copy(
+      inputDir = absolute(config.inputDir),
+      checkpoint = config.checkpoint.map(absolute),
+      dbConfig = dbConfig
+    )
+  }
+
+  private def isPooled(dbConfig: DatabaseConfig): Boolean = dbConfig match {
+    case _: TinkerGraphConfig | _: OverflowDbConfig => false
+    case _                                          => true
+  }
+
+  private def millis(nanos: Long): Double = nanos / 1e6
+
+}
@@ -0,0 +1,163 @@
+package com.github.plume.oss
+
+import better.files.File
+import com.github.plume.oss.drivers.{IDriver, SymbolIndex, TinkerGraphDriver}
+import io.joern.jimple2cpg.Config
+import io.joern.jimple2cpg.util.ProgramHandlingUtil.ClassFile
+import org.slf4j.LoggerFactory
+import upickle.default.*
+
+import java.nio.file.attribute.PosixFilePermission.{OWNER_READ, OWNER_WRITE}
+import scala.collection.mutable
+import scala.jdk.CollectionConverters.SeqHasAsJava
+import scala.util.{Failure, Success, Try}
+
+/** Splits the ingestion of a single program across several worker JVMs that write to the same database.
+  *
+  * The coordinator extracts the program's classes, partitions them into one shard per worker, and leases each worker a
+  * disjoint range of node IDs so that their writes cannot collide. Once all workers have finished, it merges the symbol
+  * indexes of the shards into its own driver, so that METHOD, TYPE_DECL, and TYPE nodes written by any shard can be
+  * resolved.
+  *
+  * Databases shared between processes, i.e., Neo4j, TigerGraph, and Neptune, are written to directly by the workers.
+  * For TinkerGraph, each worker writes to its own in-memory graph and exports it as a snapshot, which the coordinator
+  * then imports. OverflowDB and embedded Neo4j lock their storage to a single process and are not supported.
+  *
+  * Workers are started with the class path of the current JVM, so this requires running from a packaged application
+  * or a forked JVM.
+  */
+object ShardedIngestion {
+
+  private val logger = LoggerFactory.getLogger(getClass)
+
+  /** The number of node IDs leased to each shard.
+    */
+  val SHARD_ID_SPAN: Long = 1L << 36
+
+  private val CONFIG_FILE   = "shard.config"
+  private val SYMBOLS_FILE  = "shard.symbols"
+  private val SNAPSHOT_FILE = "shard.pgs"
+
+  /** Ingests the program at `config.inputDir` into the database of the given driver using `config.shards` workers.
+    */
+  def run(config: PlumeConfig, driver: IDriver): Unit = {
+    config.dbConfig match {
+      case _: OverflowDbConfig | _: Neo4jEmbeddedConfig =>
+        throw new IllegalArgumentException(
+          s"The ${config.dbConfig.shortName} database cannot be shared between processes and can not be sharded."
+        )
+      case _ =>
+    }
+    File.temporaryDirectory("plume-shards-").apply { workDir =>
+      val classDir = workDir / "classes"
+      val shards   = partition(JimpleAst2Database.loadClassFiles(File(config.inputDir), classDir), config.shards)
+      logger.info(s"Ingesting ${shards.map(_.size).sum} classes in ${shards.size} shards")
+      val shardDirs = shards.zipWithIndex.map { case (classFiles, i) =>
+        val shardDir = (workDir / s"shard-$i").createDirectories()
+        classFiles.foreach { c =>
+          val target = shardDir / classDir.relativize(c.file).toString
+          target.parent.createDirectories()
+          c.file.copyTo(target)
+        }
+        shardDir
+      }
+      if (config.deferIndexes) driver.beginBulkLoad()
+      try {
+        val workers = shardDirs.zipWithIndex.map { case (shardDir, i) =>
+          startWorker(config, shardDir, 1 + i * SHARD_ID_SPAN, (i + 1) * SHARD_ID_SPAN)
+        }
+        val failed = workers.zipWithIndex.filter { case (p, _) => p.waitFor() != 0 }.map(_._2)
+        if (failed.nonEmpty) throw new RuntimeException(s"Shards ${failed.mkString(", ")} failed, see their output")
+        shardDirs.foreach(mergeShard(driver, _))
+      } finally {
+        if (config.deferIndexes) driver.endBulkLoad()
+      }
+      // Further writes by the coordinator must not collide with any shard
+      driver.leaseIds(1 + shardDirs.size * SHARD_ID_SPAN, Long.MaxValue)
+    }
+  }
+
+  /** Splits the class files into at most `n` shards of similar size, where related classes, as given by
+    * [[JimpleAst2Database.topLevelClassGroups]], share a shard. Groups are assigned, largest first, to the shard with
+    * the fewest classes so far.
+    */
+  private def partition(classFiles: List[ClassFile], n: Int): List[List[ClassFile]] = {
+    val shards = Array.fill(math.max(1, n))(mutable.ListBuffer.empty[ClassFile])
+    JimpleAst2Database.topLevelClassGroups(classFiles).sortBy(-_.size).foreach { group =>
+      shards.minBy(_.size) ++= group
+    }
+    shards.iterator.filter(_.nonEmpty).map(_.toList).toList
+  }
+
+  private def startWorker(config: PlumeConfig, shardDir: File, firstId: Long, lastId: Long): Process = {
+    // The coordinator owns bulk loading and the TinkerGraph import and export paths
+    val workerDbConfig = config.dbConfig match {
+      case _: TinkerGraphConfig => TinkerGraphConfig()
+      case c                    => c
+    }
+    val workerConfig =
+      config.copy(inputDir = shardDir.pathAsString, shards = 1, deferIndexes = false, dbConfig = workerDbConfig)
+    // The configuration may hold database credentials, so it is passed in a file only readable by the current user
+    // rather than on the command line
+    val configFile = (shardDir / CONFIG_FILE).createFile().setPermissions(Set(OWNER_READ, OWNER_WRITE))
+    configFile.writeText(write(workerConfig))
+    val java = File(System.getProperty("java.home")) / "bin" / "java"
+    val cmd = Seq(
+      java.pathAsString,
+      "-cp",
+      System.getProperty("java.class.path"),
+      getClass.getName.stripSuffix("$"),
+      configFile.pathAsString,
+      firstId.toString,
+      lastId.toString
+    )
+    new ProcessBuilder(cmd.asJava).inheritIO().start()
+  }
+
+  private def mergeShard(driver: IDriver, shardDir: File): Unit = {
+    driver match {
+      case d: TinkerGraphDriver => d.importGraph((shardDir / SNAPSHOT_FILE).pathAsString)
+      case _                    =>
+    }
+    val shardIndex = new SymbolIndex()
+    shardIndex.load((shardDir / SYMBOLS_FILE).path)
+    driver.symbolIndex.putAll(shardIndex)
+  }
+
+  /** The entry point of a worker, which ingests the classes of a single shard.
+    *
+    * @param args
+    *   the path of the file holding the serialized [[PlumeConfig]] of the shard, which is deleted once read, and the
+    *   first and last node ID leased to it.
+    */
+  def main(args: Array[String]): Unit = {
+    val Array(configPath, firstId, lastId) = args
+    val configFile                         = File(configPath)
+    val config                             = read[PlumeConfig](configFile.contentAsString)
+    configFile.delete()
+    val shardDir = File(config.inputDir)
+    val driver   = config.dbConfig.toDriver
+    Try {
+      if (config.adaptiveTx) driver.enableAdaptiveBatching()
+      driver.leaseIds(firstId.toLong, lastId.toLong)
+      new JimpleAst2Database(
+        driver,
+        lowMemory = config.lowMemory,
+        internStrings = config.internStrings,
+        spillHeapPercentage = config.spillHeapPercentage
+      ).createAst(Config().withInputPath(shardDir.pathAsString))
+      driver.symbolIndex.save((shardDir / SYMBOLS_FILE).path)
+      driver match {
+        case d: TinkerGraphDriver => d.exportGraph((shardDir / SNAPSHOT_FILE).pathAsString)
+        case _                    =>
+      }
+    } match {
+      case Success(_) => driver.close()
+      case Failure(e) =>
+        logger.error(s"Shard at $shardDir failed", e)
+        Try(driver.close())
+        sys.exit(1)
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+package com.github.plume.oss.benchmarking
+
+import com.github.plume.oss.drivers.SchemaBuilder
+import io.shiftleft.codepropertygraph.generated.EdgeTypes.AST
+import io.shiftleft.codepropertygraph.generated.NodeTypes.{CALL, METHOD}
+import io.shiftleft.codepropertygraph.generated.PropertyNames.{FULL_NAME, ORDER}
+import org.openjdk.jmh.annotations.{Benchmark, Measurement, Scope, Setup, State}
+import org.openjdk.jmh.infra.{BenchmarkParams, Blackhole}
+
+import java.util.concurrent.TimeUnit
+import scala.util.Random
+
+/** A read benchmark that only uses the traversal API of [[com.github.plume.oss.drivers.IDriver]], and can therefore run
+  * against any configured database.
+  */
+@State(Scope.Benchmark)
+class DriverReadBenchmark extends GraphReadBenchmark {
+
+  import DriverReadBenchmark.*
+
+  @Setup
+  override def setupBenchmark(params: BenchmarkParams): Unit = {
+    super.setupBenchmark(params)
+    setupBenchmarkParams(params)
+  }
+
+  /** @return
+    *   the IDs of all nodes with the given label.
+    */
+  private def nodesWithLabel(label: String): Array[Long] =
+    SchemaBuilder.NodeToProperties.getOrElse(label, Set.empty[String]).headOption match {
+      case Some(key) => driver.propertyFromNodes(label, key).map(_("id").toString.toLong).toArray
+      case None      => Array.empty[Long]
+    }
+
+  private def allNodes(): Array[Long] = SchemaBuilder.NodeToProperties.keys.flatMap(nodesWithLabel).toArray
+
+  override def setupAstDfs(): Array[Long] = {
+    allNodes().grouped(BATCH_SIZE).flatMap { ids =>
+      val hasChildren = driver.outNeighbours(ids.toSeq, AST).keySet
+      val hasParent   = driver.inNeighbours(ids.toSeq, AST).keySet
+      ids.filter(id => hasChildren.contains(id) && !hasParent.contains(id))
+    }.toArray
+  }
+
+  override def setupAstUp(): Array[Long] = allNodes()
+
+  override def setUpOrderSum(): Array[Long] =
+    SchemaBuilder.NodeToProperties.filter(_._2.contains(ORDER)).keys.flatMap(nodesWithLabel).toArray
+
+  override def setUpCallOrder(): Array[Long] = nodesWithLabel(CALL)
+
+  override def setUpMethodFullName(): Array[String] = {
+    val methods = driver.propertyFromNodes(METHOD, FULL_NAME)
+    // A cached graph is not written through bulkTx, so only then is its symbol index rebuilt here
+    if (driver.symbolIndex.size == 0) methods.foreach { m =>
+      driver.symbolIndex.put(METHOD, m(FULL_NAME).toString, m("id").toString.toLong)
+    }
+    fullNames = new Random(1234).shuffle(methods.map(_(FULL_NAME).toString)).toArray
+    fullNames.slice(0, math.min(1000, fullNames.length))
+  }
+
+  private def orderOf(props: Map[String, Any]): Int = props(ORDER).toString.toInt
+
+  @Benchmark
+  override def astDFS(blackhole: Blackhole): Int = {
+    val stack = scala.collection.mutable.ArrayDeque.empty[Long]
+    stack.addAll(startNodes)
+    var nnodes = startNodes.length
+    while (stack.nonEmpty) {
+      val nodeId = stack.removeLast()
+      stack.appendAll(driver.outNeighbours(Seq(nodeId), AST).getOrElse(nodeId, Seq.empty))
+      nnodes += 1
+    }
+    Option(blackhole).foreach(_.consume(nnodes))
+    nnodes
+  }
+
+  @Benchmark
+  override def astFrontier(blackhole: Blackhole): Int = astFrontierOverDriver(blackhole)
+
+  @Benchmark
+  override def astUp(blackhole: Blackhole): Int = {
+    var sumDepth = 0
+    for (node <- startNodes) {
+      var parent = driver.inNeighbours(Seq(node), AST).get(node).flatMap(_.headOption)
+      while (parent.isDefined) {
+        sumDepth += 1
+        val nodeId = parent.get
+        parent = driver.inNeighbours(Seq(nodeId), AST).get(nodeId).flatMap(_.headOption)
+      }
+    }
+    Option(blackhole).foreach(_.consume(sumDepth))
+    sumDepth
+  }
+
+  @Benchmark
+  override def orderSum(blackhole: Blackhole): Int = {
+    var sumOrder = 0
+    for (ids <- startNodes.grouped(BATCH_SIZE)) {
+      sumOrder += driver.propertiesFromIds(ids.toSeq, ORDER).values.map(orderOf).sum
+    }
+    Option(blackhole).foreach(_.consume(sumOrder))
+    sumOrder
+  }
+
+  @Benchmark
+  override def callOrderTrav(blackhole: Blackhole): Int = {
+    val res = startNodes.grouped(BATCH_SIZE).map { ids =>
+      driver.propertiesFromIds(ids.toSeq, ORDER).values.count(orderOf(_) > 2)
+    }.sum
+    Option(blackhole).foreach(_.consume(res))
+    res
+  }
+
+  @Benchmark
+  override def callOrderExplicit(blackhole: Blackhole): Int = {
+    var res = 0
+    for (node <- startNodes) {
+      driver.propertiesFromIds(Seq(node), ORDER).get(node).foreach { props =>
+        if (orderOf(props) > 2) res += 1
+      }
+    }
+    Option(blackhole).foreach(_.consume(res))
+    res
+  }
+
+  /** Looks up methods by full name through the driver's in-memory [[com.github.plume.oss.drivers.SymbolIndex]] and
+    * fetches each method's properties from the database. Unlike `indexedMethodFullName` of the database-specific
+    * benchmarks, no database index is used for the lookup itself, as the driver API has no query by property value.
+    */
+  @Benchmark
+  @Measurement(time = 5, timeUnit = TimeUnit.SECONDS)
+  def symbolIndexMethodFullName(bh: Blackhole): Unit = {
+    startNames.foreach { fullName =>
+      driver.methodFullNameToNode(fullName).foreach { id =>
+        bh.consume(driver.propertiesFromIds(Seq(id), FULL_NAME))
+      }
+    }
+  }
+
+  @Benchmark
+  override def unindexedMethodFullName(bh: Blackhole): Unit = {
+    for {
+      str   <- startNames
+      found <- driver.propertyFromNodes(METHOD, FULL_NAME).filter(_(FULL_NAME) == str)
+    } bh.consume(found)
+  }
+
+}
+
+object DriverReadBenchmark {
+
+  /** The maximum number of node IDs sent with a single batched traversal call.
+    */
+  private val BATCH_SIZE = 1000
+
+}
@@ -21,7 +21,10 @@ import org.openjdk.jmh.annotations.{
 import org.openjdk.jmh.infra.{BenchmarkParams, Blackhole}
 
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import scala.compiletime.uninitialized
+import scala.reflect.ClassTag
+import scala.util.Random
 
 @State(Scope.Benchmark)
 @Timeout(5, TimeUnit.MINUTES)
@@ -37,10 +40,36 @@ trait GraphReadBenchmark {
   protected var fullNames: Array[String] = uninitialized
   protected var driver: IDriver          = uninitialized
 
+  private val threadIndices = new AtomicInteger(0)
+  private val threadIndex =
+    ThreadLocal.withInitial[Integer](() => Integer.valueOf(threadIndices.getAndIncrement()))
+  private val threadStartNodes = ThreadLocal.withInitial[Array[Long]](() => permuteForThread(nodeStart))
+  private val threadFullNames  = ThreadLocal.withInitial[Array[String]](() => permuteForThread(fullNames))
+
+  /** @return
+    *   the start nodes for the calling benchmark thread. When run with multiple threads, the first thread keeps the
+    *   original start set while every other thread receives its own random permutation of it, so that threads do not
+    *   walk the graph in lockstep.
+    */
+  protected def startNodes: Array[Long] = threadStartNodes.get()
+
+  /** @return
+    *   the method full names to look up for the calling benchmark thread. See [[startNodes]].
+    */
+  protected def startNames: Array[String] = threadFullNames.get()
+
+  private def permuteForThread[T: ClassTag](xs: Array[T]): Array[T] = threadIndex.get().intValue() match {
+    case _ if xs == null => xs
+    case 0               => xs
+    case i               => new Random(1234 + i).shuffle(xs.toSeq).toArray
+  }
+
   protected def setupBenchmarkParams(params: BenchmarkParams): Unit = {
     params.getBenchmark match {
       case name if name.endsWith("astDFS") =>
         nodeStart = setupAstDfs()
+      case name if name.endsWith("astFrontier") =>
+        nodeStart = setupAstDfs()
       case name if name.endsWith("astUp") =>
         nodeStart = setupAstUp()
       case name if name.contains("orderSum") =>
@@ -79,6 +108,13 @@ trait GraphReadBenchmark {
   @Measurement(time = 5, timeUnit = TimeUnit.SECONDS)
   def astDFS(blackhole: Blackhole): Int
 
+  /** Visits the same nodes as [[astDFS]], but expands whole frontiers of the AST with one batched driver query per
+    * level, all within a single read session.
+    */
+  @Benchmark
+  @Measurement(time = 5, timeUnit = TimeUnit.SECONDS)
+  def astFrontier(blackhole: Blackhole): Int
+
   @Benchmark
   @Measurement(time = 5, timeUnit = TimeUnit.SECONDS)
   def astUp(blackhole: Blackhole): Int
@@ -95,14 +131,16 @@ trait GraphReadBenchmark {
   @Measurement(time = 5, timeUnit = TimeUnit.SECONDS)
   def callOrderExplicit(blackhole: Blackhole): Int
 
-  @Benchmark
-  @Measurement(time = 5, timeUnit = TimeUnit.SECONDS)
-  def indexedMethodFullName(bh: Blackhole): Unit
-
   @Benchmark
   @Measurement(time = 5, timeUnit = TimeUnit.SECONDS)
   def unindexedMethodFullName(bh: Blackhole): Unit
 
+  protected def astFrontierOverDriver(blackhole: Blackhole): Int = {
+    val nnodes = startNodes.length + FrontierTraversal.out(driver, startNodes.toSeq, AST)()
+    Option(blackhole).foreach(_.consume(nnodes))
+    nnodes
+  }
+
   @TearDown
   def cleanupBenchmark(): Unit = {
     driver.close()
@@ -19,14 +19,18 @@ class GraphWriteBenchmark {
 
   @Param(Array(""))
   var configStr: String        = ""
+  @Param(Array("false", "true"))
+  var internStrings: Boolean   = false
   private var driver: IDriver  = uninitialized
   private var inputDir: String = uninitialized
+  private var lowMemory        = false
 
   @Setup
   def setupBenchmark(params: BenchmarkParams): Unit = {
     val (driver_, config) = oss.Benchmark.initializeDriverAndInputDir(configStr, useCachedGraph = false)
     driver = driver_
     inputDir = config.inputDir
+    lowMemory = config.lowMemory
   }
 
   @Setup(Level.Iteration)
@@ -37,7 +41,27 @@ class GraphWriteBenchmark {
   @Benchmark
   @Measurement(time = 10, timeUnit = TimeUnit.SECONDS)
   def createAst(blackhole: Blackhole): Unit = try {
-    JimpleAst2Database(driver).createAst(Config().withInputPath(inputDir))
+    JimpleAst2Database(driver, lowMemory = lowMemory, internStrings = internStrings)
+      .createAst(Config().withInputPath(inputDir))
+    Option(blackhole).foreach(_.consume(driver))
+  } catch {
+    case e: Throwable => Option(blackhole).foreach(_.consume(e))
+  }
+
+  /** The same workload as [[createAst]], but additionally reports the time spent in each phase, the changes committed
+    * per second, the bytes allocated and sent per change, and the heap retained per node as secondary results. The
+    * latter requests a full GC before and after the workload, which is included in the measured time.
+    */
+  @Benchmark
+  @Measurement(time = 10, timeUnit = TimeUnit.SECONDS)
+  def createAstPhases(blackhole: Blackhole, counters: WritePhaseCounters): Unit = try {
+    driver.metrics.reset()
+    val heapBefore      = WritePhaseRecorder.liveHeapBytes()
+    val allocatedBefore = WritePhaseRecorder.totalAllocatedBytes()
+    JimpleAst2Database(driver, lowMemory = lowMemory, internStrings = internStrings)
+      .createAst(Config().withInputPath(inputDir))
+    val allocated = WritePhaseRecorder.totalAllocatedBytes() - allocatedBefore
+    WritePhaseRecorder.record(counters, driver.metrics, allocated, WritePhaseRecorder.liveHeapBytes() - heapBefore)
     Option(blackhole).foreach(_.consume(driver))
   } catch {
     case e: Throwable => Option(blackhole).foreach(_.consume(e))
@@ -5,11 +5,12 @@ import io.shiftleft.codepropertygraph.generated.EdgeTypes.AST
 import io.shiftleft.codepropertygraph.generated.NodeTypes.{CALL, METHOD}
 import io.shiftleft.codepropertygraph.generated.PropertyNames.{FULL_NAME, ORDER}
 import org.neo4j.graphdb.GraphDatabaseService
-import org.openjdk.jmh.annotations.{Benchmark, Scope, Setup, State}
+import org.openjdk.jmh.annotations.{Benchmark, Measurement, Scope, Setup, State}
 import org.openjdk.jmh.infra.{BenchmarkParams, Blackhole}
 import overflowdb.traversal.*
 
 import java.util
+import java.util.concurrent.TimeUnit
 import scala.compiletime.uninitialized
 import scala.jdk.CollectionConverters.*
 import scala.util.{Random, Using}
@@ -92,8 +93,8 @@ class Neo4jEmbedReadBenchmark extends GraphReadBenchmark {
   @Benchmark
   override def astDFS(blackhole: Blackhole): Int = {
     val stack = scala.collection.mutable.ArrayDeque.empty[Long]
-    stack.addAll(nodeStart)
-    var nnodes = nodeStart.length
+    stack.addAll(startNodes)
+    var nnodes = startNodes.length
     while (stack.nonEmpty) {
       val childrenIds = Using.resource(g.beginTx) { tx =>
         tx.execute(
@@ -115,10 +116,13 @@ class Neo4jEmbedReadBenchmark extends GraphReadBenchmark {
     nnodes
   }
 
+  @Benchmark
+  override def astFrontier(blackhole: Blackhole): Int = astFrontierOverDriver(blackhole)
+
   @Benchmark
   override def astUp(blackhole: Blackhole): Int = {
     var sumDepth = 0
-    for (node <- nodeStart) {
+    for (node <- startNodes) {
       var nodeId = node
       def getResult = Using.resource(g.beginTx) { tx =>
         tx.execute(
@@ -148,7 +152,7 @@ class Neo4jEmbedReadBenchmark extends GraphReadBenchmark {
   @Benchmark
   override def orderSum(blackhole: Blackhole): Int = {
     var sumOrder = 0
-    for (nodeId <- nodeStart) {
+    for (nodeId <- startNodes) {
       val orderArr = Using.resource(g.beginTx) { tx =>
         tx.execute(
           s"""
@@ -178,7 +182,7 @@ class Neo4jEmbedReadBenchmark extends GraphReadBenchmark {
              |RETURN COUNT(n) AS SIZE
              |""".stripMargin,
         new util.HashMap[String, Object](1) {
-          put("nodeIds", nodeStart.toList.asJava.asInstanceOf[Object])
+          put("nodeIds", startNodes.toList.asJava.asInstanceOf[Object])
         }
       ).map(_.get("SIZE").asInstanceOf[Long].toInt)
         .next()
@@ -198,7 +202,7 @@ class Neo4jEmbedReadBenchmark extends GraphReadBenchmark {
              |RETURN n.$ORDER as $ORDER
              |""".stripMargin,
         new util.HashMap[String, Object](1) {
-          put("nodeIds", nodeStart.toList.asJava.asInstanceOf[Object])
+          put("nodeIds", startNodes.toList.asJava.asInstanceOf[Object])
         }
       ).map(_.get(ORDER).asInstanceOf[Int])
         .toArray
@@ -210,9 +214,12 @@ class Neo4jEmbedReadBenchmark extends GraphReadBenchmark {
     res
   }
 
+  /** Looks up methods by full name through the database's own index.
+    */
   @Benchmark
-  override def indexedMethodFullName(bh: Blackhole): Unit = {
-    fullNames.foreach { fullName =>
+  @Measurement(time = 5, timeUnit = TimeUnit.SECONDS)
+  def indexedMethodFullName(bh: Blackhole): Unit = {
+    startNames.foreach { fullName =>
       Using
         .resource(g.beginTx) { tx =>
           tx.execute(
@@ -233,7 +240,7 @@ class Neo4jEmbedReadBenchmark extends GraphReadBenchmark {
 
   @Benchmark
   override def unindexedMethodFullName(bh: Blackhole): Unit = {
-    fullNames.foreach { fullName =>
+    startNames.foreach { fullName =>
       Using
         .resource(g.beginTx) { tx =>
           tx.execute(
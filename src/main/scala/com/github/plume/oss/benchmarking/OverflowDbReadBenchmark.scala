@@ -6,10 +6,12 @@ import io.shiftleft.codepropertygraph.generated.Cpg
 import io.shiftleft.codepropertygraph.generated.EdgeTypes.AST
 import io.shiftleft.codepropertygraph.generated.PropertyNames.ORDER
 import io.shiftleft.codepropertygraph.generated.nodes.{Call, StoredNode}
-import org.openjdk.jmh.annotations.{Benchmark, Scope, Setup, State}
+import org.openjdk.jmh.annotations.{Benchmark, Measurement, Scope, Setup, State}
 import org.openjdk.jmh.infra.{BenchmarkParams, Blackhole}
 import overflowdb.PropertyKey
 import overflowdb.traversal.*
+
+import java.util.concurrent.TimeUnit
 import scala.compiletime.uninitialized
 import scala.util.Random
 import io.shiftleft.semanticcpg.language.*
@@ -52,8 +54,8 @@ class OverflowDbReadBenchmark extends GraphReadBenchmark {
   @Benchmark
   override def astDFS(blackhole: Blackhole): Int = {
     val stack = scala.collection.mutable.ArrayDeque.empty[Long]
-    stack.addAll(nodeStart)
-    var nnodes = nodeStart.length
+    stack.addAll(startNodes)
+    var nnodes = startNodes.length
     while (stack.nonEmpty) {
       val nx = cpg.graph.node(stack.removeLast()).asInstanceOf[StoredNode]
       stack.appendAll(nx._astOut.map(_.id))
@@ -63,10 +65,13 @@ class OverflowDbReadBenchmark extends GraphReadBenchmark {
     nnodes
   }
 
+  @Benchmark
+  override def astFrontier(blackhole: Blackhole): Int = astFrontierOverDriver(blackhole)
+
   @Benchmark
   override def astUp(blackhole: Blackhole): Int = {
     var sumDepth = 0
-    for (node <- nodeStart) {
+    for (node <- startNodes) {
       var p = cpg.graph.node(node)
       while (p != null) {
         sumDepth += 1
@@ -81,7 +86,7 @@ class OverflowDbReadBenchmark extends GraphReadBenchmark {
   override def orderSum(blackhole: Blackhole): Int = {
     var sumOrder = 0
     val propKey  = PropertyKey[Int](ORDER)
-    for (node <- nodeStart.map(cpg.graph.node)) {
+    for (node <- startNodes.map(cpg.graph.node)) {
       sumOrder += node.asInstanceOf[StoredNode].property(propKey)
     }
     Option(blackhole).foreach(_.consume(sumOrder))
@@ -90,7 +95,7 @@ class OverflowDbReadBenchmark extends GraphReadBenchmark {
 
   @Benchmark
   override def callOrderTrav(blackhole: Blackhole): Int = {
-    val res = cpg.graph.nodes(nodeStart*).iterator.asInstanceOf[Iterator[Call]].orderGt(2).size
+    val res = cpg.graph.nodes(startNodes*).iterator.asInstanceOf[Iterator[Call]].orderGt(2).size
     Option(blackhole).foreach(_.consume(res))
     res
   }
@@ -98,16 +103,19 @@ class OverflowDbReadBenchmark extends GraphReadBenchmark {
   @Benchmark
   override def callOrderExplicit(blackhole: Blackhole): Int = {
     var res = 0
-    for (node <- cpg.graph.nodes(nodeStart*).iterator.asInstanceOf[Iterator[Call]]) {
+    for (node <- cpg.graph.nodes(startNodes*).iterator.asInstanceOf[Iterator[Call]]) {
       if (node.order > 2) res += 1
     }
     Option(blackhole).foreach(_.consume(res))
     res
   }
 
+  /** Looks up methods by full name through the database's own index.
+    */
   @Benchmark
-  override def indexedMethodFullName(bh: Blackhole): Unit = {
-    fullNames.foreach { fullName =>
+  @Measurement(time = 5, timeUnit = TimeUnit.SECONDS)
+  def indexedMethodFullName(bh: Blackhole): Unit = {
+    startNames.foreach { fullName =>
       cpg.method.fullNameExact(fullName).foreach(bh.consume)
     }
   }
@@ -115,7 +123,7 @@ class OverflowDbReadBenchmark extends GraphReadBenchmark {
   @Benchmark
   override def unindexedMethodFullName(bh: Blackhole): Unit = {
     for {
-      str   <- fullNames
+      str   <- startNames
       found <- cpg.method.filter { _ => true }.fullNameExact(str)
     } bh.consume(found)
   }
@@ -10,6 +10,7 @@ import org.openjdk.jmh.annotations.*
 import org.openjdk.jmh.infra.{BenchmarkParams, Blackhole}
 import overflowdb.traversal.*
 
+import java.util.concurrent.TimeUnit
 import scala.compiletime.uninitialized
 import scala.jdk.CollectionConverters.*
 import scala.util.Random
@@ -50,8 +51,8 @@ class TinkerGraphReadBenchmark extends GraphReadBenchmark {
   @Benchmark
   override def astDFS(blackhole: Blackhole): Int = {
     val stack = scala.collection.mutable.ArrayDeque.empty[Long]
-    stack.addAll(nodeStart)
-    var nnodes = nodeStart.length
+    stack.addAll(startNodes)
+    var nnodes = startNodes.length
     while (stack.nonEmpty) {
       val nx = g().V(stack.removeLast())
       stack.appendAll(nx.out(AST).id().toList.asScala.map(_.asInstanceOf[Long]).toArray)
@@ -61,10 +62,13 @@ class TinkerGraphReadBenchmark extends GraphReadBenchmark {
     nnodes
   }
 
+  @Benchmark
+  override def astFrontier(blackhole: Blackhole): Int = astFrontierOverDriver(blackhole)
+
   @Benchmark
   override def astUp(blackhole: Blackhole): Int = {
     var sumDepth = 0
-    for (node <- nodeStart) {
+    for (node <- startNodes) {
       var nodeId  = node
       def hasNext = g().V(nodeId).in(AST).hasNext
       while (hasNext) {
@@ -79,7 +83,7 @@ class TinkerGraphReadBenchmark extends GraphReadBenchmark {
   @Benchmark
   override def orderSum(blackhole: Blackhole): Int = {
     var sumOrder = 0
-    for (node <- nodeStart.map(g().V(_))) {
+    for (node <- startNodes.map(g().V(_))) {
       sumOrder += node.properties(ORDER).value().next().asInstanceOf[Int]
     }
     Option(blackhole).foreach(_.consume(sumOrder))
@@ -88,7 +92,7 @@ class TinkerGraphReadBenchmark extends GraphReadBenchmark {
 
   @Benchmark
   override def callOrderTrav(blackhole: Blackhole): Int = {
-    val res = g().V(nodeStart*).hasLabel(CALL).has(ORDER, P.gt(2)).size
+    val res = g().V(startNodes*).hasLabel(CALL).has(ORDER, P.gt(2)).size
     Option(blackhole).foreach(_.consume(res))
     res
   }
@@ -96,16 +100,19 @@ class TinkerGraphReadBenchmark extends GraphReadBenchmark {
   @Benchmark
   override def callOrderExplicit(blackhole: Blackhole): Int = {
     var res = 0
-    for (node <- g().V(nodeStart*).hasLabel(CALL)) {
+    for (node <- g().V(startNodes*).hasLabel(CALL)) {
       if (node.property(ORDER).value().asInstanceOf[Int] > 2) res += 1
     }
     Option(blackhole).foreach(_.consume(res))
     res
   }
 
+  /** Looks up methods by full name through the database's own index.
+    */
   @Benchmark
-  override def indexedMethodFullName(bh: Blackhole): Unit = {
-    fullNames.foreach { fullName =>
+  @Measurement(time = 5, timeUnit = TimeUnit.SECONDS)
+  def indexedMethodFullName(bh: Blackhole): Unit = {
+    startNames.foreach { fullName =>
       g().V().hasLabel(METHOD).has(FULL_NAME, fullName).foreach(bh.consume)
     }
   }
@@ -113,7 +120,7 @@ class TinkerGraphReadBenchmark extends GraphReadBenchmark {
   @Benchmark
   override def unindexedMethodFullName(bh: Blackhole): Unit = {
     for {
-      str   <- fullNames
+      str   <- startNames
       found <- g().V().hasLabel(METHOD).where(__.has(FULL_NAME, str))
     } bh.consume(found)
   }
@@ -0,0 +1,122 @@
+package com.github.plume.oss.benchmarking
+
+import com.github.plume.oss.drivers.IngestionMetrics
+import com.github.plume.oss.drivers.IngestionMetrics.*
+import com.sun.management.GarbageCollectionNotificationInfo
+
+import java.lang.management.{ManagementFactory, MemoryType, MemoryUsage}
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import javax.management.openmbean.CompositeData
+import javax.management.{Notification, NotificationEmitter}
+import scala.jdk.CollectionConverters.{ListHasAsScala, MapHasAsScala}
+import scala.util.Try
+
+/** Records the phases of a single AST creation into [[WritePhaseCounters]].
+  */
+object WritePhaseRecorder {
+
+  private val heapPools =
+    ManagementFactory.getMemoryPoolMXBeans.asScala.filter(_.getType == MemoryType.HEAP).map(_.getName).toSet
+
+  // How long to wait for the notifications of collections that have already completed
+  private val NOTIFICATION_TIMEOUT_MS = 1000L
+
+  // The JVM's own count of the bytes allocated by all threads, including terminated ones, available from JDK 21
+  private val jvmAllocatedBytes: Option[() => Long] = ManagementFactory.getThreadMXBean match {
+    case bean: com.sun.management.ThreadMXBean =>
+      Try(classOf[com.sun.management.ThreadMXBean].getMethod("getTotalThreadAllocatedBytes")).toOption
+        .map(method => () => method.invoke(bean).asInstanceOf[Long])
+        .filter(total => Try(total()).getOrElse(-1L) >= 0)
+    case _ => None
+  }
+
+  private val reclaimedBytes      = new AtomicLong(0)
+  private val notifiedCollections = new AtomicLong(0)
+  private val collectors =
+    ManagementFactory.getGarbageCollectorMXBeans.asScala.filter(_.isInstanceOf[NotificationEmitter]).toSeq
+
+  // Otherwise, sums the heap reclaimed by every collection, so that allocations are accounted for no matter which
+  // thread made them, including pool workers that have since terminated
+  if (jvmAllocatedBytes.isEmpty) collectors.foreach { collector =>
+    collector.asInstanceOf[NotificationEmitter].addNotificationListener(
+      (n: Notification, _: AnyRef) =>
+        if (n.getType == GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION) {
+          val info = GarbageCollectionNotificationInfo.from(n.getUserData.asInstanceOf[CompositeData]).getGcInfo
+          def heapUsed(usage: java.util.Map[String, MemoryUsage]): Long =
+            usage.asScala.collect { case (pool, u) if heapPools.contains(pool) => u.getUsed }.sum
+          val reclaimed = heapUsed(info.getMemoryUsageBeforeGc) - heapUsed(info.getMemoryUsageAfterGc)
+          reclaimedBytes.addAndGet(math.max(0L, reclaimed))
+          notifiedCollections.incrementAndGet()
+        },
+      null,
+      null
+    )
+  }
+
+  // Collections before the listeners were added are never notified. Counted after adding them, so that a collection
+  // in between can only make the notified count lead
+  private val unnotifiedCollections = collectionCount()
+
+  private def collectionCount(): Long = collectors.map(c => math.max(0L, c.getCollectionCount)).sum
+
+  /** Adds the phases recorded by the given metrics, the given number of bytes allocated while they were recorded, and
+    * the given growth of the live heap to the given counters.
+    */
+  def record(counters: WritePhaseCounters, metrics: IngestionMetrics, allocated: Long, retained: Long): Unit = {
+    def ms(phase: String): Double = metrics.nanosOf(phase) / 1e6
+
+    counters.extractClassesMs += ms(EXTRACT_CLASSES)
+    counters.sootLoadMs += ms(SOOT_LOAD)
+    counters.astBuildMs += ms(AST_BUILD)
+    counters.diffMergeMs += ms(DIFF_MERGE)
+    counters.bulkTxMs += ms(BULK_TX)
+    counters.bulkTxNodesMs += ms(BULK_TX_NODES)
+    counters.bulkTxPropertiesMs += ms(BULK_TX_PROPERTIES)
+    counters.bulkTxEdgesMs += ms(BULK_TX_EDGES)
+    counters.changes += metrics.countOf(CHANGES)
+    counters.nodes += metrics.countOf(NODES)
+    counters.allocatedBytes += allocated
+    counters.retainedHeapBytes += retained
+    counters.bytesSent += metrics.countOf(BYTES_SENT)
+    counters.internedStrings += metrics.countOf(INTERNED_STRINGS)
+    counters.batches += metrics.countOf(BATCHES)
+    counters.batchedChanges += metrics.countOf(BATCHED_CHANGES)
+    counters.batchFailures += metrics.countOf(BATCH_FAILURES)
+    counters.batchResizes += metrics.countOf(BATCH_GROWTHS) + metrics.countOf(BATCH_SHRINKS)
+  }
+
+  /** Per-thread allocation counters only cover live threads, and parallel passes run on pool workers that may terminate
+    * while idle. From JDK 21, the JVM counts the allocations of all threads, including terminated ones, itself.
+    *
+    * On earlier JDKs, this is the heap reclaimed by all collections so far plus the heap currently in use. Collections
+    * are notified asynchronously, so this first waits for the notifications of those that have completed. Even then,
+    * this is a rough lower bound: a concurrent collector, such as ZGC, reports the heap in use at the end of a cycle
+    * including what was allocated during it, so those allocations are only counted if they are still in use.
+    *
+    * @return
+    *   the total bytes allocated on the heap since the JVM started, approximately.
+    */
+  def totalAllocatedBytes(): Long = jvmAllocatedBytes match {
+    case Some(total) => total()
+    case None =>
+      awaitNotifications()
+      reclaimedBytes.get() + ManagementFactory.getMemoryMXBean.getHeapMemoryUsage.getUsed
+  }
+
+  private def awaitNotifications(): Unit = {
+    val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(NOTIFICATION_TIMEOUT_MS)
+    while (notifiedCollections.get() < collectionCount() - unnotifiedCollections && System.nanoTime() < deadline) {
+      Thread.sleep(1)
+    }
+  }
+
+  /** @return
+    *   the used heap after requesting a full GC.
+    */
+  def liveHeapBytes(): Long = {
+    System.gc()
+    ManagementFactory.getMemoryMXBean.getHeapMemoryUsage.getUsed
+  }
+
+}
@@ -11,6 +11,15 @@ package object oss {
     jmhMemoryGb: Int = 4,
     jmhOutputFile: String = File.newTemporaryFile("plume-jmh-output-").pathAsString,
     jmhResultFile: String = File.newTemporaryFile("plume-jmh-result-").pathAsString,
+    jmhReadThreads: Seq[Int] = Seq(1),
+    deferIndexes: Boolean = false,
+    lowMemory: Boolean = false,
+    internStrings: Boolean = false,
+    adaptiveTx: Boolean = false,
+    checkpoint: Option[String] = None,
+    spillHeapPercentage: Option[Int] = None,
+    daemonPort: Option[Int] = None,
+    shards: Int = 1,
     dbConfig: DatabaseConfig = OverflowDbConfig()
   ) derives ReadWriter
 